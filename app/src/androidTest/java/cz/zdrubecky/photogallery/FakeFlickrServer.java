@@ -0,0 +1,212 @@
+package cz.zdrubecky.photogallery;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// A stand-in for Flickr on localhost, speaking just enough HTTP/1.1 for HttpURLConnection
+// The REST calls (getRecent and search alike) get the recorded page, with the ids made unique per page and the urls pointing back here
+// The thumbnails are all the same made-up image, the server only cares how long it takes to send them
+// Every response can be delayed, throttled or replaced by an error, to look like a real network
+public class FakeFlickrServer {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Pattern ID_PATTERN = Pattern.compile("\"id\":\"(\\d+)\"");
+    private static final Pattern URL_PATTERN = Pattern.compile("https?://[^\"]+/([^/\"]+\\.jpg)");
+    private static final Pattern PAGE_PATTERN = Pattern.compile("[?&]page=(\\d+)");
+    // Small enough for the throttling to be smooth
+    private static final int CHUNK_SIZE = 1024;
+
+    private final String mPageTemplate;
+    private final byte[] mThumbnail;
+    private final ExecutorService mConnectionExecutor = Executors.newCachedThreadPool();
+
+    private volatile long mLatencyMillis;
+    private volatile long mBytesPerSecond;
+    private volatile double mErrorRate;
+    private final Random mRandom = new Random(42);
+
+    private ServerSocket mServerSocket;
+    private Thread mAcceptThread;
+
+    private final AtomicInteger mPageRequests = new AtomicInteger();
+    private final AtomicInteger mThumbnailRequests = new AtomicInteger();
+    private final AtomicInteger mInjectedErrors = new AtomicInteger();
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    public FakeFlickrServer(byte[] recordedPage, byte[] thumbnail) {
+        mPageTemplate = new String(recordedPage, UTF_8);
+        mThumbnail = thumbnail;
+    }
+
+    // Waited out before every response, it stands for the round trip and the server's own time
+    public void setLatency(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    // Zero means as fast as the loopback goes
+    public void setBandwidth(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    // The share of the requests answered with a 503
+    public void setErrorRate(double errorRate) {
+        mErrorRate = errorRate;
+    }
+
+    public void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "FakeFlickrServer");
+        mAcceptThread.start();
+    }
+
+    public void shutdown() throws IOException {
+        mServerSocket.close();
+        mConnectionExecutor.shutdownNow();
+    }
+
+    // What goes to FlickrFetchr.setEndpoint()
+    public String getEndpoint() {
+        return getBaseUrl() + "/services/rest/";
+    }
+
+    public int getPageRequests() {
+        return mPageRequests.get();
+    }
+
+    public int getThumbnailRequests() {
+        return mThumbnailRequests.get();
+    }
+
+    public int getInjectedErrors() {
+        return mInjectedErrors.get();
+    }
+
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    private String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort();
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+
+                mConnectionExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException ioe) {
+                // Closed by shutdown()
+                return;
+            }
+        }
+    }
+
+    // One request per connection, the response says "Connection: close"
+    private void serve(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
+            String requestLine = reader.readLine();
+
+            if (requestLine == null) {
+                return;
+            }
+
+            // The headers don't matter, but they have to be read
+            String header;
+            while ((header = reader.readLine()) != null && !header.isEmpty()) {
+            }
+
+            String path = requestLine.split(" ")[1];
+
+            Thread.sleep(mLatencyMillis);
+
+            if (shouldFail()) {
+                mInjectedErrors.incrementAndGet();
+                respond(socket.getOutputStream(), 503, "Service Unavailable", "text/plain", new byte[0]);
+            } else if (path.startsWith("/services/rest/")) {
+                mPageRequests.incrementAndGet();
+                respond(socket.getOutputStream(), 200, "OK", "application/json", buildPage(getPage(path)));
+            } else if (path.startsWith("/thumbnails/")) {
+                mThumbnailRequests.incrementAndGet();
+                respond(socket.getOutputStream(), 200, "OK", "image/jpeg", mThumbnail);
+            } else {
+                respond(socket.getOutputStream(), 404, "Not Found", "text/plain", new byte[0]);
+            }
+        } catch (IOException | InterruptedException e) {
+            // The client gave up (a cancelled download) or the server is shutting down
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private boolean shouldFail() {
+        synchronized (mRandom) {
+            return mRandom.nextDouble() < mErrorRate;
+        }
+    }
+
+    private static int getPage(String path) {
+        Matcher matcher = PAGE_PATTERN.matcher(path);
+
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : 1;
+    }
+
+    // Every page gets its own ids (the page number in front) and thumbnails
+    private byte[] buildPage(int page) {
+        String json = ID_PATTERN.matcher(mPageTemplate).replaceAll("\"id\":\"" + page + "$1\"");
+        json = URL_PATTERN.matcher(json).replaceAll(getBaseUrl() + "/thumbnails/" + page + "_$1");
+        json = json.replaceFirst("\"page\":\\d+", "\"page\":" + page);
+
+        return json.getBytes(UTF_8);
+    }
+
+    private void respond(OutputStream out, int code, String message, String contentType, byte[] body)
+            throws IOException, InterruptedException {
+        String headers = "HTTP/1.1 " + code + " " + message + "\r\n" +
+                "Content-Type: " + contentType + "\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "Cache-Control: no-store\r\n" +
+                "Connection: close\r\n\r\n";
+        out.write(headers.getBytes(UTF_8));
+
+        for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, body.length - offset);
+            out.write(body, offset, length);
+            out.flush();
+            mBytesSent.addAndGet(length);
+
+            long bytesPerSecond = mBytesPerSecond;
+            if (bytesPerSecond > 0) {
+                Thread.sleep(length * 1000L / bytesPerSecond);
+            }
+        }
+
+        out.flush();
+    }
+}
@@ -0,0 +1,189 @@
+package cz.zdrubecky.photogallery;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+// Scrolls the gallery against FakeFlickrServer and measures what the user would see
+// time to the first thumbnail from the launch, thumbnails bound per second while scrolling and the requests that never made it
+// The network is set through the instrumentation arguments, e.g.
+//   adb shell am instrument -w -r -e class cz.zdrubecky.photogallery.ScrollLoadHarness \
+//       -e latencyMs 300 -e bandwidthKbps 500 -e errorRate 0.05 cz.zdrubecky.photogallery.test/android.support.test.runner.AndroidJUnitRunner
+// The report is a JSON line in the log (tag ScrollLoadHarness) and the instrumentation status
+@RunWith(AndroidJUnit4.class)
+public class ScrollLoadHarness {
+    private static final String TAG = "ScrollLoadHarness";
+    private static final String FIXTURE = "/flickr_recent_page1.json";
+    private static final long FIRST_THUMBNAIL_TIMEOUT = 30 * 1000;
+    // Roughly a frame
+    private static final long SCROLL_STEP_MILLIS = 16;
+    private static final long SETTLE_MILLIS = 2000;
+
+    // Not launched until the caches are cleared and the server is up
+    @Rule
+    public ActivityTestRule<PhotoGalleryActivity> mActivityRule = new ActivityTestRule<>(PhotoGalleryActivity.class, false, false);
+
+    private FakeFlickrServer mServer;
+    private Bundle mArguments;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mArguments = InstrumentationRegistry.getArguments();
+
+        // Start cold: no query, no stored pages, no cached responses or thumbnails
+        QueryPreferences.setStoredQuery(context, null);
+        context.deleteDatabase("galleryBase.db");
+        deleteRecursively(context.getCacheDir());
+
+        mServer = new FakeFlickrServer(readFixture(), createThumbnail());
+        mServer.setLatency(getLongArgument("latencyMs", 150));
+        mServer.setBandwidth(getLongArgument("bandwidthKbps", 2000) * 1000 / 8);
+        mServer.setErrorRate(Double.parseDouble(getArgument("errorRate", "0.02")));
+        mServer.start();
+
+        FlickrFetchr.setEndpoint(mServer.getEndpoint());
+        Metrics.setEnabled(true);
+        Metrics.reset();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FlickrFetchr.setEndpoint(null);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void scrollThroughTheGallery() throws Exception {
+        long scrollMillis = getLongArgument("scrollSeconds", 10) * 1000;
+        final int pixelsPerStep = (int) getLongArgument("pixelsPerFrame", 40);
+
+        long launchedAt = SystemClock.elapsedRealtime();
+        Activity activity = mActivityRule.launchActivity(null);
+
+        while (Metrics.getCount(Metrics.Counter.THUMBNAILS_BOUND) == 0) {
+            assertTrue("No thumbnail within " + FIRST_THUMBNAIL_TIMEOUT + " ms",
+                    SystemClock.elapsedRealtime() - launchedAt < FIRST_THUMBNAIL_TIMEOUT);
+            SystemClock.sleep(10);
+        }
+        long timeToFirstThumbnail = SystemClock.elapsedRealtime() - launchedAt;
+
+        final RecyclerView recyclerView = (RecyclerView) activity.findViewById(R.id.fragment_photo_gallery_recycler_view);
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+
+        long boundBeforeScroll = Metrics.getCount(Metrics.Counter.THUMBNAILS_BOUND);
+        long scrollStart = SystemClock.elapsedRealtime();
+
+        // A steady scroll, as if the finger kept dragging at the same speed
+        while (SystemClock.elapsedRealtime() - scrollStart < scrollMillis) {
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    recyclerView.scrollBy(0, pixelsPerStep);
+                }
+            });
+            SystemClock.sleep(SCROLL_STEP_MILLIS);
+        }
+
+        long scrolledFor = SystemClock.elapsedRealtime() - scrollStart;
+        long boundWhileScrolling = Metrics.getCount(Metrics.Counter.THUMBNAILS_BOUND) - boundBeforeScroll;
+
+        // Let the last requests come back, they're either bound or dropped by now
+        SystemClock.sleep(SETTLE_MILLIS);
+
+        String report = "{\"latency_ms\":" + getLongArgument("latencyMs", 150) +
+                ",\"bandwidth_kbps\":" + getLongArgument("bandwidthKbps", 2000) +
+                ",\"error_rate\":" + getArgument("errorRate", "0.02") +
+                ",\"time_to_first_thumbnail_ms\":" + timeToFirstThumbnail +
+                ",\"thumbnails_per_second\":" + (boundWhileScrolling * 1000.0 / scrolledFor) +
+                ",\"thumbnails_bound\":" + Metrics.getCount(Metrics.Counter.THUMBNAILS_BOUND) +
+                ",\"thumbnails_dropped\":" + Metrics.getCount(Metrics.Counter.THUMBNAILS_DROPPED) +
+                ",\"requests_failed\":" + mServer.getInjectedErrors() +
+                ",\"page_requests\":" + mServer.getPageRequests() +
+                ",\"thumbnail_requests\":" + mServer.getThumbnailRequests() +
+                ",\"bytes_sent\":" + mServer.getBytesSent() +
+                ",\"metrics\":" + Metrics.dump() + "}";
+
+        Log.i(TAG, report);
+
+        Bundle status = new Bundle();
+        status.putString(TAG, report);
+        instrumentation.sendStatus(0, status);
+    }
+
+    private String getArgument(String name, String defaultValue) {
+        String value = mArguments.getString(name);
+
+        return value == null ? defaultValue : value;
+    }
+
+    private long getLongArgument(String name, long defaultValue) {
+        return Long.parseLong(getArgument(name, Long.toString(defaultValue)));
+    }
+
+    private byte[] readFixture() throws IOException {
+        InputStream in = getClass().getResourceAsStream(FIXTURE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try {
+            ByteStreams.copy(in, out, FlickrFetchr.getBufferPool());
+        } finally {
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+
+    // The size of a url_s thumbnail, noise doesn't compress well, so the file is about as big as a real photo's
+    private static byte[] createThumbnail() {
+        int width = 240;
+        int height = 160;
+        int[] pixels = new int[width * height];
+        Random random = new Random(42);
+
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = Color.rgb(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+        }
+
+        Bitmap bitmap = Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 75, out);
+        bitmap.recycle();
+
+        return out.toByteArray();
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+                child.delete();
+            }
+        }
+    }
+}
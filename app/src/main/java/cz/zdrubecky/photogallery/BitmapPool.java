@@ -0,0 +1,129 @@
+package cz.zdrubecky.photogallery;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Keeps the bitmaps thrown out of the memory cache so that the decoder can draw into them again (BitmapFactory.Options.inBitmap)
+// Without it every thumbnail allocates a new pixel buffer and the old one is left for the garbage collector, which shows as jank
+// The bitmaps are grouped by their dimensions and config, which is exactly what the decoder needs to match
+public class BitmapPool {
+    private final long mMaxSize;
+    private long mSize;
+    // Insertion ordered, so the first group is the one which had a bitmap added longest ago (trimming starts there)
+    private final Map<Key, ArrayDeque<Bitmap>> mGroups = new LinkedHashMap<>();
+
+    private static final class Key {
+        private final int mWidth;
+        private final int mHeight;
+        private final Bitmap.Config mConfig;
+
+        private Key(int width, int height, Bitmap.Config config) {
+            mWidth = width;
+            mHeight = height;
+            mConfig = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+            return mWidth == other.mWidth && mHeight == other.mHeight && mConfig == other.mConfig;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mWidth;
+            result = 31 * result + mHeight;
+            result = 31 * result + (mConfig == null ? 0 : mConfig.hashCode());
+            return result;
+        }
+    }
+
+    public BitmapPool(long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    // The pool takes over the bitmap, nobody else should be drawing it anymore
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+
+        long size = getSize(bitmap);
+        if (size > mMaxSize) {
+            return;
+        }
+
+        Key key = new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> group = mGroups.remove(key);
+        if (group == null) {
+            group = new ArrayDeque<>();
+        }
+        // Re-insert the group to move it to the back of the line
+        mGroups.put(key, group);
+
+        group.push(bitmap);
+        mSize += size;
+
+        trimToSize();
+    }
+
+    // Returns a bitmap to be reused or null, the caller owns it from now on
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> group = mGroups.get(new Key(width, height, config));
+
+        if (group == null || group.isEmpty()) {
+            return null;
+        }
+
+        Bitmap bitmap = group.pop();
+        mSize -= getSize(bitmap);
+
+        return bitmap;
+    }
+
+    public synchronized void clear() {
+        mGroups.clear();
+        mSize = 0;
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    // Throw out the oldest bitmaps, the garbage collector takes it from there
+    private void trimToSize() {
+        Iterator<ArrayDeque<Bitmap>> groups = mGroups.values().iterator();
+
+        while (mSize > mMaxSize && groups.hasNext()) {
+            ArrayDeque<Bitmap> group = groups.next();
+
+            // The bottom of the stack is the oldest one of the group
+            while (mSize > mMaxSize && !group.isEmpty()) {
+                Bitmap bitmap = group.removeLast();
+                mSize -= getSize(bitmap);
+            }
+
+            if (group.isEmpty()) {
+                groups.remove();
+            }
+        }
+    }
+
+    public static int getSize(Bitmap bitmap) {
+        // A reused bitmap can have a bigger buffer than its current dimensions need
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+
+        return bitmap.getByteCount();
+    }
+}
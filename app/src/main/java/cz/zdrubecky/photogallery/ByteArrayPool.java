@@ -0,0 +1,83 @@
+package cz.zdrubecky.photogallery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+// Byte arrays handed back and forth between the network reads, so every response doesn't allocate (and throw away) its own buffers
+// The arrays may be bigger than asked for, the callers have to keep track of how much of them they've used
+// The pool is bounded, the least recently returned arrays are thrown out first
+public class ByteArrayPool {
+    private static final Comparator<byte[]> BY_SIZE = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] lhs, byte[] rhs) {
+            return lhs.length - rhs.length;
+        }
+    };
+
+    // The same arrays twice, once to find the smallest fitting one fast and once to know which one to throw out
+    private final List<byte[]> mBuffersBySize = new ArrayList<>();
+    private final List<byte[]> mBuffersByLastUse = new LinkedList<>();
+    private final int mSizeLimit;
+    private int mCurrentSize;
+
+    public ByteArrayPool(int sizeLimit) {
+        mSizeLimit = sizeLimit;
+    }
+
+    // Returns an array at least this long, a new one if there's nothing big enough in the pool
+    public synchronized byte[] getBuf(int length) {
+        int index = Collections.binarySearch(mBuffersBySize, new byte[length], BY_SIZE);
+        if (index < 0) {
+            index = -index - 1;
+        }
+
+        if (index < mBuffersBySize.size()) {
+            byte[] buffer = mBuffersBySize.remove(index);
+            mBuffersByLastUse.remove(buffer);
+            mCurrentSize -= buffer.length;
+
+            return buffer;
+        }
+
+        return new byte[length];
+    }
+
+    // The caller must not touch the array after this
+    public synchronized void returnBuf(byte[] buffer) {
+        if (buffer == null || buffer.length > mSizeLimit) {
+            return;
+        }
+
+        mBuffersByLastUse.add(buffer);
+
+        int index = Collections.binarySearch(mBuffersBySize, buffer, BY_SIZE);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        mBuffersBySize.add(index, buffer);
+        mCurrentSize += buffer.length;
+
+        trim();
+    }
+
+    public synchronized int size() {
+        return mCurrentSize;
+    }
+
+    private void trim() {
+        while (mCurrentSize > mSizeLimit) {
+            byte[] buffer = mBuffersByLastUse.remove(0);
+            // Compare the references, two arrays of the same size are still different arrays
+            for (int i = 0; i < mBuffersBySize.size(); i++) {
+                if (mBuffersBySize.get(i) == buffer) {
+                    mBuffersBySize.remove(i);
+                    break;
+                }
+            }
+            mCurrentSize -= buffer.length;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package cz.zdrubecky.photogallery;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// The ways of reading the network streams, all of them borrowing their buffers from a pool
+public class ByteStreams {
+    public static final int BUFFER_SIZE = 8 * 1024;
+
+    // The stream is read right into the returned array when its length is known upfront, with no copying at all
+    // Otherwise (or when the length turns out to be wrong) the bytes pile up in pooled buffers and get copied out once at the end
+    public static byte[] readFully(InputStream in, int expectedLength, ByteArrayPool pool) throws IOException {
+        if (expectedLength < 0) {
+            return readUnknownLength(in, new byte[0], 0, pool);
+        }
+
+        byte[] bytes = new byte[expectedLength];
+        int offset = 0;
+        int bytesRead;
+
+        while (offset < expectedLength && (bytesRead = in.read(bytes, offset, expectedLength - offset)) != -1) {
+            offset += bytesRead;
+        }
+
+        if (offset < expectedLength) {
+            throw new IOException("Expected " + expectedLength + " bytes, got only " + offset);
+        }
+
+        // A transparently unzipped body is longer than its Content-Length says
+        int next = in.read();
+        if (next == -1) {
+            return bytes;
+        }
+
+        byte[] head = new byte[expectedLength + 1];
+        System.arraycopy(bytes, 0, head, 0, expectedLength);
+        head[expectedLength] = (byte) next;
+
+        return readUnknownLength(in, head, head.length, pool);
+    }
+
+    // Pushes the whole stream into the output through a pooled buffer, returns the number of bytes copied
+    public static long copy(InputStream in, OutputStream out, ByteArrayPool pool) throws IOException {
+        byte[] buffer = pool.getBuf(BUFFER_SIZE);
+        long total = 0;
+
+        try {
+            int bytesRead;
+
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+                total += bytesRead;
+            }
+        } finally {
+            pool.returnBuf(buffer);
+        }
+
+        return total;
+    }
+
+    private static byte[] readUnknownLength(InputStream in, byte[] head, int headLength, ByteArrayPool pool) throws IOException {
+        PoolingByteArrayOutputStream out = new PoolingByteArrayOutputStream(pool, Math.max(BUFFER_SIZE, headLength * 2));
+
+        try {
+            out.write(head, 0, headLength);
+            copy(in, out, pool);
+
+            return out.toByteArray();
+        } finally {
+            out.close();
+        }
+    }
+
+    // A ByteArrayOutputStream growing through the pool instead of allocating a bigger array every time it runs out of space
+    public static class PoolingByteArrayOutputStream extends ByteArrayOutputStream {
+        private final ByteArrayPool mPool;
+
+        public PoolingByteArrayOutputStream(ByteArrayPool pool, int initialSize) {
+            mPool = pool;
+            buf = mPool.getBuf(Math.max(initialSize, 256));
+        }
+
+        @Override
+        public synchronized void write(byte[] buffer, int offset, int length) {
+            expand(length);
+            super.write(buffer, offset, length);
+        }
+
+        @Override
+        public synchronized void write(int oneByte) {
+            expand(1);
+            super.write(oneByte);
+        }
+
+        // Hands the buffer back, the stream can't be used afterwards
+        @Override
+        public void close() throws IOException {
+            mPool.returnBuf(buf);
+            buf = null;
+            super.close();
+        }
+
+        private void expand(int length) {
+            if (count + length <= buf.length) {
+                return;
+            }
+
+            byte[] newBuf = mPool.getBuf((count + length) * 2);
+            System.arraycopy(buf, 0, newBuf, 0, count);
+            mPool.returnBuf(buf);
+            buf = newBuf;
+        }
+    }
+}
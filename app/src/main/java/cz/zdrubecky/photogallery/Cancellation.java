@@ -0,0 +1,73 @@
+package cz.zdrubecky.photogallery;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+
+// Lets another thread stop a download half-way
+// The reads check the flag before every chunk, and the connection is torn down so that a read (or a connect) stuck on the network
+// fails right away instead of waiting for the next bytes
+// Once cancelled, the downloading thread gets an IOException, usually an InterruptedIOException, but a closed socket says so in its own way
+public class Cancellation {
+    private volatile boolean mIsCancelled;
+    // The connection being read right now, guarded by this
+    private HttpURLConnection mConnection;
+
+    // Any thread may call it, but closing the connection may touch the network, so better not the main one
+    public void cancel() {
+        HttpURLConnection connection;
+
+        synchronized (this) {
+            if (mIsCancelled) {
+                return;
+            }
+
+            mIsCancelled = true;
+            connection = mConnection;
+        }
+
+        if (connection != null) {
+            connection.disconnect();
+        }
+    }
+
+    public boolean isCancelled() {
+        return mIsCancelled;
+    }
+
+    public void throwIfCancelled() throws InterruptedIOException {
+        if (mIsCancelled) {
+            throw new InterruptedIOException("Cancelled");
+        }
+    }
+
+    // Call it before connecting, cancel() disconnects it from then on
+    public synchronized void attach(HttpURLConnection connection) throws InterruptedIOException {
+        throwIfCancelled();
+        mConnection = connection;
+    }
+
+    // The connection is done with (and disconnected by its owner)
+    public synchronized void detach() {
+        mConnection = null;
+    }
+
+    // The stream stops with an InterruptedIOException as soon as it's cancelled
+    public InputStream wrap(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                throwIfCancelled();
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                throwIfCancelled();
+                return super.read(buffer, offset, count);
+            }
+        };
+    }
+}
@@ -0,0 +1,532 @@
+package cz.zdrubecky.photogallery;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// A size bounded cache living in a directory, one file per entry
+// Every change is appended to a journal so that the LRU order and the sizes survive the process being killed
+// Journal lines look like "DIRTY key", "CLEAN key size", "READ key" and "REMOVE key"
+// Writes go to a temporary file which is renamed into place only when finished, so a crash leaves no half-written entries behind
+// It doesn't know anything about Android, so the same instance can serve any background thread (all the methods are synchronized)
+public class DiskCache {
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String MAGIC = "cz.zdrubecky.photogallery.DiskCache";
+    private static final String VERSION = "1";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String DIRTY = "DIRTY";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+
+    // Rebuild the journal once it has this many more lines than there are entries
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private final File mDirectory;
+    private final File mJournalFile;
+    private final long mMaxSize;
+    private long mSize;
+    private Writer mJournalWriter;
+    private int mRedundantOpCount;
+    // Access ordered, so the eldest entry is always the least recently used one
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(0, 0.75f, true);
+
+    private static class Entry {
+        private final String mKey;
+        private long mLength;
+        private boolean mReadable;
+        // Not null while someone is writing the entry
+        private Editor mCurrentEditor;
+
+        private Entry(String key) {
+            mKey = key;
+        }
+    }
+
+    private DiskCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mJournalFile = new File(directory, JOURNAL_FILE);
+        mMaxSize = maxSize;
+    }
+
+    public static DiskCache open(File directory, long maxSize) throws IOException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the cache directory " + directory);
+        }
+
+        DiskCache cache = new DiskCache(directory, maxSize);
+
+        if (cache.mJournalFile.exists()) {
+            try {
+                boolean isTruncated = cache.readJournal();
+                cache.processJournal();
+
+                // The torn line mustn't stay in the middle of the journal, the next lines would be appended right after it
+                if (isTruncated) {
+                    cache.rebuildJournal();
+                } else {
+                    cache.mJournalWriter = new BufferedWriter(new FileWriter(cache.mJournalFile, true));
+                }
+
+                return cache;
+            } catch (IOException ioe) {
+                // The journal is corrupted, start over with an empty directory
+                cache.deleteContents();
+            }
+        }
+
+        cache.rebuildJournal();
+
+        return cache;
+    }
+
+    // Turn any string (usually an URL) into a safe file name
+    public static String keyFor(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(value.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+
+            for (byte b : hash) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Every JVM has MD5 and UTF-8, this can't really happen
+            return Integer.toHexString(value.hashCode());
+        }
+    }
+
+    // Returns the file of a finished entry or null, reading it counts as an access
+    public synchronized File get(String key) throws IOException {
+        checkNotClosed();
+        Entry entry = mEntries.get(key);
+
+        if (entry == null || !entry.mReadable) {
+            return null;
+        }
+
+        File file = getCleanFile(key);
+        if (!file.exists()) {
+            // Someone has deleted it behind our back
+            remove(key);
+            return null;
+        }
+
+        mRedundantOpCount++;
+        mJournalWriter.append(READ + ' ' + key + '\n');
+        compactJournalIfNeeded();
+
+        return file;
+    }
+
+    public synchronized InputStream getInputStream(String key) throws IOException {
+        File file = get(key);
+
+        return file == null ? null : new FileInputStream(file);
+    }
+
+    // Returns null if the entry is being written by someone else at the moment
+    public synchronized Editor edit(String key) throws IOException {
+        checkNotClosed();
+        Entry entry = mEntries.get(key);
+
+        if (entry == null) {
+            entry = new Entry(key);
+            mEntries.put(key, entry);
+        } else if (entry.mCurrentEditor != null) {
+            return null;
+        }
+
+        Editor editor = new Editor(entry);
+        entry.mCurrentEditor = editor;
+
+        // Flush the DIRTY line right away, so a crash during the write is detected on the next open
+        mJournalWriter.write(DIRTY + ' ' + key + '\n');
+        mJournalWriter.flush();
+
+        return editor;
+    }
+
+    public synchronized boolean remove(String key) throws IOException {
+        checkNotClosed();
+        Entry entry = mEntries.get(key);
+
+        if (entry == null || entry.mCurrentEditor != null) {
+            return false;
+        }
+
+        File file = getCleanFile(key);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete " + file);
+        }
+
+        mSize -= entry.mLength;
+        mRedundantOpCount++;
+        mJournalWriter.append(REMOVE + ' ' + key + '\n');
+        mEntries.remove(key);
+        compactJournalIfNeeded();
+
+        return true;
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized void flush() throws IOException {
+        checkNotClosed();
+        trimToSize();
+        mJournalWriter.flush();
+    }
+
+    public synchronized void close() throws IOException {
+        if (mJournalWriter == null) {
+            return;
+        }
+
+        for (Entry entry : new ArrayList<>(mEntries.values())) {
+            if (entry.mCurrentEditor != null) {
+                entry.mCurrentEditor.abort();
+            }
+        }
+
+        trimToSize();
+        mJournalWriter.close();
+        mJournalWriter = null;
+    }
+
+    // Hands out the stream for a single entry, either commit() or abort() it when done
+    public final class Editor {
+        private final Entry mEntry;
+        private boolean mDone;
+
+        private Editor(Entry entry) {
+            mEntry = entry;
+        }
+
+        public OutputStream newOutputStream() throws FileNotFoundException {
+            synchronized (DiskCache.this) {
+                if (mEntry.mCurrentEditor != this) {
+                    throw new IllegalStateException("The editor is no longer valid");
+                }
+
+                return new FileOutputStream(getDirtyFile(mEntry.mKey));
+            }
+        }
+
+        // Done even if it throws, by then the entry has let go of the editor (the journal is what failed)
+        public void commit() throws IOException {
+            try {
+                completeEdit(this, true);
+            } finally {
+                mDone = true;
+            }
+        }
+
+        public void abort() throws IOException {
+            try {
+                completeEdit(this, false);
+            } finally {
+                mDone = true;
+            }
+        }
+
+        // Convenient for the finally blocks, it does nothing after a commit, whether it went through or not
+        public void abortUnlessCommitted() {
+            synchronized (DiskCache.this) {
+                if (mDone || mEntry.mCurrentEditor != this) {
+                    return;
+                }
+
+                try {
+                    abort();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private synchronized void completeEdit(Editor editor, boolean success) throws IOException {
+        Entry entry = editor.mEntry;
+
+        if (entry.mCurrentEditor != editor) {
+            throw new IllegalStateException("The editor is no longer valid");
+        }
+
+        File dirty = getDirtyFile(entry.mKey);
+
+        if (success && dirty.exists()) {
+            File clean = getCleanFile(entry.mKey);
+            // Renaming is atomic, readers either see the old file or the complete new one
+            if (!dirty.renameTo(clean)) {
+                dirty.delete();
+                success = false;
+            } else {
+                long oldLength = entry.mLength;
+                entry.mLength = clean.length();
+                mSize = mSize - oldLength + entry.mLength;
+            }
+        } else {
+            dirty.delete();
+            success = false;
+        }
+
+        mRedundantOpCount++;
+        entry.mCurrentEditor = null;
+
+        if (success || entry.mReadable) {
+            entry.mReadable = true;
+            mJournalWriter.write(CLEAN + ' ' + entry.mKey + ' ' + entry.mLength + '\n');
+        } else {
+            mEntries.remove(entry.mKey);
+            mJournalWriter.write(REMOVE + ' ' + entry.mKey + '\n');
+        }
+
+        mJournalWriter.flush();
+
+        if (mSize > mMaxSize) {
+            trimToSize();
+        }
+        compactJournalIfNeeded();
+    }
+
+    // The tests swap the journal for one which fails like a full disk would
+    synchronized void setJournalWriter(Writer journalWriter) {
+        mJournalWriter = journalWriter;
+    }
+
+    private void trimToSize() throws IOException {
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+
+            // Never throw away an entry which is being written right now
+            if (entry.mCurrentEditor != null || !entry.mReadable) {
+                continue;
+            }
+
+            getCleanFile(entry.mKey).delete();
+            mSize -= entry.mLength;
+            mRedundantOpCount++;
+            mJournalWriter.append(REMOVE + ' ' + entry.mKey + '\n');
+            iterator.remove();
+        }
+    }
+
+    // Returns true if the last line was torn, the process was killed in the middle of appending it
+    // Such a line is skipped, whatever it was about is left as it was before (an entry it would have made clean stays dirty
+    // and is dropped), but a bad header or a bad line anywhere else means the journal can't be trusted at all
+    private boolean readJournal() throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(mJournalFile));
+        boolean endsWithNewline = endsWithNewline(mJournalFile);
+
+        try {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) {
+                throw new IOException("Unexpected journal header");
+            }
+
+            int lineCount = 0;
+            // Read one line ahead, so the last one is known to be the last one
+            String line = reader.readLine();
+
+            while (line != null) {
+                String next = reader.readLine();
+
+                if (next == null && !endsWithNewline) {
+                    mRedundantOpCount = lineCount - mEntries.size();
+                    return true;
+                }
+
+                try {
+                    readJournalLine(line);
+                } catch (IOException ioe) {
+                    if (next != null) {
+                        throw ioe;
+                    }
+
+                    mRedundantOpCount = lineCount - mEntries.size();
+                    return true;
+                }
+
+                lineCount++;
+                line = next;
+            }
+
+            mRedundantOpCount = lineCount - mEntries.size();
+
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static boolean endsWithNewline(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            if (raf.length() == 0) {
+                return false;
+            }
+
+            raf.seek(raf.length() - 1);
+            return raf.read() == '\n';
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void readJournalLine(String line) throws IOException {
+        String[] parts = line.split(" ");
+
+        if (parts.length < 2) {
+            throw new IOException("Unexpected journal line: " + line);
+        }
+
+        String op = parts[0];
+        String key = parts[1];
+
+        if (op.equals(REMOVE)) {
+            mEntries.remove(key);
+            return;
+        }
+
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry(key);
+            mEntries.put(key, entry);
+        }
+
+        if (op.equals(CLEAN) && parts.length == 3) {
+            entry.mReadable = true;
+            entry.mCurrentEditor = null;
+            try {
+                entry.mLength = Long.parseLong(parts[2]);
+            } catch (NumberFormatException nfe) {
+                throw new IOException("Unexpected journal line: " + line);
+            }
+        } else if (op.equals(DIRTY)) {
+            entry.mCurrentEditor = new Editor(entry);
+        } else if (!op.equals(READ)) {
+            throw new IOException("Unexpected journal line: " + line);
+        }
+    }
+
+    // Sum up the sizes and drop the entries which were left dirty by a crash
+    private void processJournal() {
+        deleteIfExists(new File(mDirectory, JOURNAL_FILE_TMP));
+
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+
+            if (entry.mCurrentEditor == null) {
+                mSize += entry.mLength;
+            } else {
+                entry.mCurrentEditor = null;
+                deleteIfExists(getCleanFile(entry.mKey));
+                deleteIfExists(getDirtyFile(entry.mKey));
+                iterator.remove();
+            }
+        }
+    }
+
+    // Write a fresh journal with one line per entry and swap it for the old one
+    private void rebuildJournal() throws IOException {
+        if (mJournalWriter != null) {
+            mJournalWriter.close();
+        }
+
+        File journalTmp = new File(mDirectory, JOURNAL_FILE_TMP);
+        Writer writer = new BufferedWriter(new FileWriter(journalTmp));
+
+        try {
+            writer.write(MAGIC + '\n');
+            writer.write(VERSION + '\n');
+
+            for (Entry entry : mEntries.values()) {
+                if (entry.mCurrentEditor != null) {
+                    writer.write(DIRTY + ' ' + entry.mKey + '\n');
+                } else {
+                    writer.write(CLEAN + ' ' + entry.mKey + ' ' + entry.mLength + '\n');
+                }
+            }
+        } finally {
+            writer.close();
+        }
+
+        if (!journalTmp.renameTo(mJournalFile)) {
+            throw new IOException("Failed to replace the journal");
+        }
+
+        mJournalWriter = new BufferedWriter(new FileWriter(mJournalFile, true));
+        mRedundantOpCount = 0;
+    }
+
+    private void compactJournalIfNeeded() throws IOException {
+        if (mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && mRedundantOpCount >= mEntries.size()) {
+            rebuildJournal();
+        }
+    }
+
+    private void deleteContents() {
+        File[] files = mDirectory.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    private void checkNotClosed() {
+        if (mJournalWriter == null) {
+            throw new IllegalStateException("The cache is closed");
+        }
+    }
+
+    private File getCleanFile(String key) {
+        return new File(mDirectory, key);
+    }
+
+    private File getDirtyFile(String key) {
+        return new File(mDirectory, key + ".tmp");
+    }
+
+    private static void deleteIfExists(File file) {
+        if (file.exists()) {
+            file.delete();
+        }
+    }
+}
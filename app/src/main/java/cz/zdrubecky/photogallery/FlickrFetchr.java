@@ -1,66 +1,141 @@
 package cz.zdrubecky.photogallery;
 
+import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 public class FlickrFetchr {
     private static final String TAG = "FlickFetchr";
     private static final String API_KEY = "9a0554259914a86fb9e7eb014e4e5d52";
     private static final String FETCH_RECENTS_METHOD = "flickr.photos.getRecent";
     private static final String SEARCH_METHOD = "flickr.photos.search";
+    private static final String DEFAULT_ENDPOINT = "https://api.flickr.com/services/rest/";
     // This builder escapes the params
-    private static final Uri ENDPOINT =Uri.parse("https://api.flickr.com/services/rest/")
-            .buildUpon()
-            .appendQueryParameter("api_key", API_KEY)
-            .appendQueryParameter("format", "json")
-            .appendQueryParameter("nojsoncallback", "1")
-            .appendQueryParameter("extras", "url_s")
-            .build();
+    // Volatile, the tests swap it for a local server while the fetching threads may be running
+    private static volatile Uri sEndpoint = buildEndpoint(DEFAULT_ENDPOINT);
+    // Shared by all the instances, the fetchers are created per request
+    private static final ByteArrayPool sBufferPool = new ByteArrayPool(256 * 1024);
+    // The recent searches, a few screens of them, for as long as a stored page stays fresh
+    private static final int SEARCH_CACHE_PAGES = 16;
+    private static final long SEARCH_CACHE_MAX_AGE = 5 * 60 * 1000;
+    private static final SearchResultCache sSearchCache = new SearchResultCache(SEARCH_CACHE_PAGES, SEARCH_CACHE_MAX_AGE);
+
+    // Null unless the fetcher got a context, then the REST calls are cached and revalidated
+    private HttpCache mHttpCache;
+    // Null the same way, every page fetched is also written to the gallery database so the UI can start from it next time
+    private GalleryStore mGalleryStore;
+
+    // Without the cache, fine for the thumbnails (they have the disk cache of their own)
+    public FlickrFetchr() {
+    }
+
+    public FlickrFetchr(Context context) {
+        mHttpCache = HttpCache.get(context);
+        mGalleryStore = GalleryStore.get(context);
+    }
+
+    public static ByteArrayPool getBufferPool() {
+        return sBufferPool;
+    }
+
+    // Points all the REST calls somewhere else (a local stand-in for Flickr in the tests), null goes back to Flickr
+    public static void setEndpoint(String endpoint) {
+        sEndpoint = buildEndpoint(endpoint == null ? DEFAULT_ENDPOINT : endpoint);
+    }
+
+    private static Uri buildEndpoint(String endpoint) {
+        return Uri.parse(endpoint)
+                .buildUpon()
+                .appendQueryParameter("api_key", API_KEY)
+                .appendQueryParameter("format", "json")
+                .appendQueryParameter("nojsoncallback", "1")
+                // Every size the grid may pick from, with their dimensions (they come along with the urls)
+                .appendQueryParameter("extras", "url_t,url_q,url_s,url_m")
+                .build();
+    }
 
     public byte[] getUrlBytes(String urlSpec) throws IOException {
+        return getUrlBytes(urlSpec, null);
+    }
+
+    // The cancellation may be null, then the download always runs to the end
+    public byte[] getUrlBytes(String urlSpec, Cancellation cancellation) throws IOException {
+        HttpURLConnection connection = openConnection(urlSpec, cancellation);
+        long start = Metrics.start();
+
+        try {
+            // Knowing the length, the body is read right into an array of the exact size
+            // -1 means the server didn't say, then it piles up in pooled buffers
+            return ByteStreams.readFully(getInputStream(connection, cancellation), connection.getContentLength(), sBufferPool);
+        } finally {
+            close(connection, cancellation);
+            Metrics.stop(Metrics.Stage.HTTP_READ, start);
+        }
+    }
+
+    // Streams the body somewhere else (a file, a decoder...) without ever holding all of it
+    public long copyUrlTo(String urlSpec, OutputStream out) throws IOException {
+        return copyUrlTo(urlSpec, out, null);
+    }
+
+    public long copyUrlTo(String urlSpec, OutputStream out, Cancellation cancellation) throws IOException {
+        HttpURLConnection connection = openConnection(urlSpec, cancellation);
+        long start = Metrics.start();
+
+        try {
+            return ByteStreams.copy(getInputStream(connection, cancellation), out, sBufferPool);
+        } finally {
+            close(connection, cancellation);
+            Metrics.stop(Metrics.Stage.HTTP_READ, start);
+        }
+    }
+
+    // The caller reads the body and closes the connection
+    private HttpURLConnection openConnection(String urlSpec, Cancellation cancellation) throws IOException {
         URL url = new URL(urlSpec);
         // openConnection() returns a general connection, so we have to cast it to HTTP and gain access to the specific methods and codes
         // The connection waits to open an input/output stream
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
 
-        try {
-            // Here's where we push the incoming data
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            InputStream in = connection.getInputStream();
+        // Cancelled from now on, the connecting included
+        if (cancellation != null) {
+            cancellation.attach(connection);
+        }
 
-            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-                throw new IOException(connection.getResponseMessage() + ": with " + urlSpec);
+        try {
+            if (getResponseCode(connection) != HttpURLConnection.HTTP_OK) {
+                throw new IOException(connection.getResponseMessage() + ": with " + url);
             }
+        } catch (IOException ioe) {
+            close(connection, cancellation);
+            throw ioe;
+        }
 
-            int bytesRead;
-            byte[] buffer = new byte[1024];
+        return connection;
+    }
 
-            while ((bytesRead = in.read(buffer)) > 0) {
-                out.write(buffer, 0, bytesRead);
-            }
+    private static InputStream getInputStream(HttpURLConnection connection, Cancellation cancellation) throws IOException {
+        InputStream in = connection.getInputStream();
 
-            out.close();
+        return cancellation == null ? in : cancellation.wrap(in);
+    }
 
-            return out.toByteArray();
-        } finally {
-            connection.disconnect();
+    private static void close(HttpURLConnection connection, Cancellation cancellation) {
+        if (cancellation != null) {
+            cancellation.detach();
         }
+
+        connection.disconnect();
     }
 
     // Specific method, returning a string instead of, let's say, images
@@ -69,40 +144,229 @@ public class FlickrFetchr {
     }
 
     public List<GalleryItem> fetchRecentPhotos(int page) {
-        String url = buildUrl(FETCH_RECENTS_METHOD, null, page);
+        String url = buildUrl(FETCH_RECENTS_METHOD, null, page, 0);
+
+        return storePage(null, page, downloadGalleryItems(url));
+    }
 
-        return downloadGalleryItems(url);
+    // Just the first few photos, for someone who only wants to know what's new (the pages of this size aren't stored)
+    public List<GalleryItem> fetchRecentPhotos(int page, int perPage) {
+        return downloadGalleryItems(buildUrl(FETCH_RECENTS_METHOD, null, page, perPage));
     }
 
+    // Always goes to Flickr (or the HTTP cache), the page is kept in memory for getCachedSearch() then
     public List<GalleryItem> searchPhotos(String query, int page) {
-        String url = buildUrl(SEARCH_METHOD, query, page);
+        String url = buildUrl(SEARCH_METHOD, query, page, 0);
+        List<GalleryItem> items = storePage(query, page, downloadGalleryItems(url));
+        sSearchCache.put(query, page, items, System.currentTimeMillis());
+
+        return items;
+    }
+
+    // For the text still being typed, most of it is never submitted, so the page is only kept in memory
+    // Neither the HTTP cache nor the store get it, it would only push the real pages out of there
+    // The store gets it through storeSearch() once the query is submitted, under the query as the user wrote it
+    public List<GalleryItem> prefetchSearch(String query, int page, Cancellation cancellation) {
+        String url = buildUrl(SEARCH_METHOD, query, page, 0);
+        List<GalleryItem> items = downloadGalleryItems(url, cancellation, false);
+
+        if (mGalleryStore != null) {
+            mGalleryStore.fillPreviewColors(items);
+        }
+        sSearchCache.put(query, page, items, System.currentTimeMillis());
+
+        return items;
+    }
+
+    // A submitted search served from the memory, kept for the next start (and offline) like any other page
+    public List<GalleryItem> storeSearch(String query, int page, List<GalleryItem> items) {
+        return storePage(query, page, items);
+    }
+
+    // Null unless the same search ran a moment ago, or was prefetched while the user typed it
+    public List<GalleryItem> getCachedSearch(String query, int page) {
+        List<GalleryItem> items = sSearchCache.get(query, page, System.currentTimeMillis());
+        Metrics.increment(items != null ? Metrics.Counter.SEARCH_CACHE_HIT : Metrics.Counter.SEARCH_CACHE_MISS);
+
+        return items;
+    }
 
-        return downloadGalleryItems(url);
+    public List<GalleryItem> searchPhotos(String query, int page, int perPage) {
+        return downloadGalleryItems(buildUrl(SEARCH_METHOD, query, page, perPage));
     }
 
     public List<GalleryItem> downloadGalleryItems(String url) {
+        return downloadGalleryItems(url, null);
+    }
+
+    // A cancelled download comes back empty, like a failed one
+    public List<GalleryItem> downloadGalleryItems(String url, Cancellation cancellation) {
+        return downloadGalleryItems(url, cancellation, true);
+    }
+
+    private List<GalleryItem> downloadGalleryItems(String url, Cancellation cancellation, boolean useHttpCache) {
         List<GalleryItem> items = new ArrayList<>();
 
         try {
-            String jsonString = getUrlString(url);
+            items = mHttpCache == null || !useHttpCache ? downloadUncached(url, cancellation) : downloadCached(url, cancellation);
+        } catch (IOException ioe) {
+            if (cancellation != null && cancellation.isCancelled()) {
+                Log.i(TAG, "Cancelled fetching " + url);
+            } else {
+                Log.e(TAG, "Failed to fetch items.", ioe);
+            }
+        }
+
+        return items;
+    }
+
+    // An empty list is most likely a failed request, it must not overwrite a page which is still good for offline use
+    private List<GalleryItem> storePage(String query, int page, List<GalleryItem> items) {
+        if (mGalleryStore != null && !items.isEmpty()) {
+            mGalleryStore.putPage(query, page, items);
+            // The photos seen before show their colors right away
+            mGalleryStore.fillPreviewColors(items);
+        }
+
+        return items;
+    }
+
+    private List<GalleryItem> downloadUncached(String url, Cancellation cancellation) throws IOException {
+        HttpURLConnection connection = openJsonConnection(url, null, cancellation);
+
+        try {
+            if (getResponseCode(connection) != HttpURLConnection.HTTP_OK) {
+                throw new IOException(connection.getResponseMessage() + ": with " + url);
+            }
+
+            // Parse the items right off the wire, the body is never held as a whole
+            return parse(getJsonBody(connection, cancellation));
+        } finally {
+            close(connection, cancellation);
+        }
+    }
+
+    // A fresh cached response doesn't touch the network at all, a stale one is revalidated and usually costs just a 304
+    private List<GalleryItem> downloadCached(String url, Cancellation cancellation) throws IOException {
+        HttpCache.CachedResponse cached = mHttpCache.lookup(url);
+
+        try {
+            long now = System.currentTimeMillis();
+
+            if (cached != null && cached.isFresh(now)) {
+                Metrics.increment(Metrics.Counter.HTTP_CACHE_FRESH);
+                return parse(cached.getBody());
+            }
+
+            HttpURLConnection connection = openJsonConnection(url, cached, cancellation);
+
+            try {
+                int responseCode = getResponseCode(connection);
+
+                if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                    Metrics.increment(Metrics.Counter.HTTP_CACHE_REVALIDATED);
+                    HttpCache.CachedResponse revalidated = HttpCache.fromNotModified(connection, now, cached);
+                    byte[] body = ByteStreams.readFully(cached.getBody(), -1, sBufferPool);
+
+                    // Store the new freshness along with the old body
+                    if (revalidated != null) {
+                        putQuietly(url, revalidated, body);
+                    }
 
-            Log.i(TAG, "Received JSON: " + jsonString);
+                    return parse(new ByteArrayInputStream(body));
+                }
+
+                if (responseCode != HttpURLConnection.HTTP_OK) {
+                    throw new IOException(connection.getResponseMessage() + ": with " + url);
+                }
+
+                // Only a full body is a miss, an error says nothing about the cache
+                Metrics.increment(Metrics.Counter.HTTP_CACHE_MISS);
+
+                HttpCache.CachedResponse response = HttpCache.fromConnection(connection, now);
+                // In memory first, so whatever happens to the cache, the page is parsed from what the network sent
+                byte[] body = ByteStreams.readFully(getJsonBody(connection, cancellation), -1, sBufferPool);
+
+                if (response != null) {
+                    putQuietly(url, response, body);
+                }
+
+                return parse(new ByteArrayInputStream(body));
+            } finally {
+                close(connection, cancellation);
+            }
+        } finally {
+            if (cached != null) {
+                cached.close();
+            }
+        }
+    }
 
-            JSONObject jsonBody = new JSONObject(jsonString);
-            // The old call
-//            parseItems(items, jsonBody);
-            items = parseItems(jsonBody);
+    // The cache is only a shortcut, a full disk (or any other trouble writing it) mustn't cost the page which is already here
+    private void putQuietly(String url, HttpCache.CachedResponse response, byte[] body) {
+        try {
+            mHttpCache.put(url, response, new ByteArrayInputStream(body));
         } catch (IOException ioe) {
-            Log.e(TAG, "Failed to fetch items.", ioe);
-        } catch (JSONException je) {
-            Log.e(TAG, "Failed to parse JSON.", je);
+            Log.w(TAG, "Failed to cache the response of " + url, ioe);
+        }
+    }
+
+    // The JSON compresses well, so ask for gzip explicitly (that also means unzipping it ourselves)
+    private HttpURLConnection openJsonConnection(String url, HttpCache.CachedResponse cached, Cancellation cancellation) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+
+        if (cancellation != null) {
+            cancellation.attach(connection);
         }
 
-        return items;
+        if (cached != null) {
+            cached.addValidators(connection);
+        }
+
+        return connection;
+    }
+
+    // Connecting, sending the request and waiting for the headers, it all happens here
+    private static int getResponseCode(HttpURLConnection connection) throws IOException {
+        long start = Metrics.start();
+
+        try {
+            return connection.getResponseCode();
+        } finally {
+            Metrics.stop(Metrics.Stage.HTTP_CONNECT, start);
+        }
     }
 
-    private String buildUrl(String method, String query, int page) {
-        Uri.Builder uriBuilder = ENDPOINT.buildUpon()
+    // Reading the stream is part of the parsing, whether it comes from the network or the cache
+    private static List<GalleryItem> parse(InputStream in) throws IOException {
+        long start = Metrics.start();
+
+        try {
+            return GalleryItemParser.parse(in);
+        } finally {
+            Metrics.stop(Metrics.Stage.JSON_PARSE, start);
+        }
+    }
+
+    private InputStream getJsonBody(HttpURLConnection connection, Cancellation cancellation) throws IOException {
+        InputStream in = getInputStream(connection, cancellation);
+        // What went over the wire, still compressed, -1 if the server didn't say
+        int length = connection.getContentLength();
+        if (length > 0) {
+            Metrics.add(Metrics.Counter.BYTES_JSON, length);
+        }
+
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+            return new GZIPInputStream(in);
+        }
+
+        return in;
+    }
+
+    // Zero items per page leaves the Flickr default (100)
+    private String buildUrl(String method, String query, int page, int perPage) {
+        Uri.Builder uriBuilder = sEndpoint.buildUpon()
                 .appendQueryParameter("method", method);
 
         if (method.equals(SEARCH_METHOD)) {
@@ -113,35 +377,10 @@ public class FlickrFetchr {
 
         uriBuilder.appendQueryParameter("page", Integer.toString(page));
 
-        return uriBuilder.build().toString();
-    }
+        if (perPage > 0) {
+            uriBuilder.appendQueryParameter("per_page", Integer.toString(perPage));
+        }
 
-    private List<GalleryItem> parseItems(JSONObject jsonBody) throws IOException, JSONException {
-        JSONObject photosJsonObject = jsonBody.getJSONObject("photos");
-        String photoString = photosJsonObject.getString("photo");
-
-        Gson gson = new GsonBuilder().create();
-
-        // Parse the source as an array and then cast it to a list, ingenious
-        // Arrays.asList returns a fixed sized list backed by an array, and you can't add elements to it!!! (which I did of course) CAST IT!
-        return new ArrayList<>(Arrays.asList(gson.fromJson(photoString, GalleryItem[].class)));
-
-        // Alternative WITHOUT the use of Gson
-//        JSONArray photoJsonArray = photosJsonObject.getJSONArray("photo");
-//        for (int i = 0; i < photoJsonArray.length(); i++) {
-//            JSONObject photoJsonObject = photoJsonArray.getJSONObject(i);
-//
-//            GalleryItem item = new GalleryItem();
-//            item.setId(photoJsonObject.getString("id"));
-//            item.setCaption(photoJsonObject.getString("title"));
-//
-//            // See if there's a photo and throw the item away otherwise
-//            if (!photoJsonObject.has("url_s")) {
-//                continue;
-//            }
-//
-//            item.setUrl(photoJsonObject.getString("url_s"));
-//            items.add(item);
-//        }
+        return uriBuilder.build().toString();
     }
 }
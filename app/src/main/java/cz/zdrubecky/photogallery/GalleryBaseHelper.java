@@ -0,0 +1,64 @@
+package cz.zdrubecky.photogallery;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import cz.zdrubecky.photogallery.GalleryDbSchema.ItemTable;
+import cz.zdrubecky.photogallery.GalleryDbSchema.PageTable;
+import cz.zdrubecky.photogallery.GalleryDbSchema.PreviewTable;
+
+// Creates the database the first time it's needed and upgrades it when the version goes up
+public class GalleryBaseHelper extends SQLiteOpenHelper {
+    private static final int VERSION = 3;
+    private static final String DATABASE_NAME = "galleryBase.db";
+
+    public GalleryBaseHelper(Context context) {
+        super(context, DATABASE_NAME, null, VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("create table " + PageTable.NAME + "(" +
+                PageTable.Cols.QUERY + " text not null, " +
+                PageTable.Cols.PAGE + " integer not null, " +
+                PageTable.Cols.FETCHED_AT + " integer not null, " +
+                "primary key (" + PageTable.Cols.QUERY + ", " + PageTable.Cols.PAGE + ")" +
+                ")");
+
+        db.execSQL("create table " + ItemTable.NAME + "(" +
+                ItemTable.Cols.QUERY + " text not null, " +
+                ItemTable.Cols.PAGE + " integer not null, " +
+                ItemTable.Cols.POSITION + " integer not null, " +
+                ItemTable.Cols.PHOTO_ID + " text, " +
+                ItemTable.Cols.TITLE + " text, " +
+                ItemTable.Cols.URL + " text, " +
+                ItemTable.Cols.WIDTH + " integer, " +
+                ItemTable.Cols.HEIGHT + " integer, " +
+                ItemTable.Cols.THUMBNAIL_URL + " text, " +
+                ItemTable.Cols.THUMBNAIL_WIDTH + " integer, " +
+                ItemTable.Cols.THUMBNAIL_HEIGHT + " integer, " +
+                ItemTable.Cols.SQUARE_URL + " text, " +
+                ItemTable.Cols.SQUARE_WIDTH + " integer, " +
+                ItemTable.Cols.SQUARE_HEIGHT + " integer, " +
+                ItemTable.Cols.MEDIUM_URL + " text, " +
+                ItemTable.Cols.MEDIUM_WIDTH + " integer, " +
+                ItemTable.Cols.MEDIUM_HEIGHT + " integer, " +
+                "primary key (" + ItemTable.Cols.QUERY + ", " + ItemTable.Cols.PAGE + ", " + ItemTable.Cols.POSITION + ")" +
+                ")");
+
+        db.execSQL("create table " + PreviewTable.NAME + "(" +
+                PreviewTable.Cols.PHOTO_ID + " text primary key, " +
+                PreviewTable.Cols.COLOR + " integer not null" +
+                ")");
+    }
+
+    // It's only a cache of what's on Flickr, so the simplest upgrade is to start over
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("drop table if exists " + PreviewTable.NAME);
+        db.execSQL("drop table if exists " + ItemTable.NAME);
+        db.execSQL("drop table if exists " + PageTable.NAME);
+        onCreate(db);
+    }
+}
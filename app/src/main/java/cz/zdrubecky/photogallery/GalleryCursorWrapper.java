@@ -0,0 +1,29 @@
+package cz.zdrubecky.photogallery;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import cz.zdrubecky.photogallery.GalleryDbSchema.ItemTable;
+
+// Turns the rows of the items table into gallery items, so nobody else has to know the columns
+public class GalleryCursorWrapper extends CursorWrapper {
+    public GalleryCursorWrapper(Cursor cursor) {
+        super(cursor);
+    }
+
+    public GalleryItem getGalleryItem() {
+        GalleryItem item = new GalleryItem();
+        item.setId(getString(getColumnIndex(ItemTable.Cols.PHOTO_ID)));
+        item.setCaption(getString(getColumnIndex(ItemTable.Cols.TITLE)));
+        item.setUrl(getString(getColumnIndex(ItemTable.Cols.URL)));
+        item.setSize(getInt(getColumnIndex(ItemTable.Cols.WIDTH)), getInt(getColumnIndex(ItemTable.Cols.HEIGHT)));
+        item.setThumbnail(getString(getColumnIndex(ItemTable.Cols.THUMBNAIL_URL)),
+                getInt(getColumnIndex(ItemTable.Cols.THUMBNAIL_WIDTH)), getInt(getColumnIndex(ItemTable.Cols.THUMBNAIL_HEIGHT)));
+        item.setSquare(getString(getColumnIndex(ItemTable.Cols.SQUARE_URL)),
+                getInt(getColumnIndex(ItemTable.Cols.SQUARE_WIDTH)), getInt(getColumnIndex(ItemTable.Cols.SQUARE_HEIGHT)));
+        item.setMedium(getString(getColumnIndex(ItemTable.Cols.MEDIUM_URL)),
+                getInt(getColumnIndex(ItemTable.Cols.MEDIUM_WIDTH)), getInt(getColumnIndex(ItemTable.Cols.MEDIUM_HEIGHT)));
+
+        return item;
+    }
+}
@@ -0,0 +1,51 @@
+package cz.zdrubecky.photogallery;
+
+// The names of the tables and their columns, so that the strings are typed only once
+// A page is identified by the query it belongs to (an empty one for the recent photos) and its number
+public class GalleryDbSchema {
+    public static final class PageTable {
+        public static final String NAME = "pages";
+
+        public static final class Cols {
+            public static final String QUERY = "query";
+            public static final String PAGE = "page";
+            public static final String FETCHED_AT = "fetched_at";
+        }
+    }
+
+    public static final class ItemTable {
+        public static final String NAME = "items";
+
+        public static final class Cols {
+            public static final String QUERY = "query";
+            public static final String PAGE = "page";
+            // The order within the page, Flickr sorts the photos by itself
+            public static final String POSITION = "position";
+            public static final String PHOTO_ID = "photo_id";
+            public static final String TITLE = "title";
+            public static final String URL = "url";
+            public static final String WIDTH = "width";
+            public static final String HEIGHT = "height";
+            // The other sizes, see GalleryItem
+            public static final String THUMBNAIL_URL = "thumbnail_url";
+            public static final String THUMBNAIL_WIDTH = "thumbnail_width";
+            public static final String THUMBNAIL_HEIGHT = "thumbnail_height";
+            public static final String SQUARE_URL = "square_url";
+            public static final String SQUARE_WIDTH = "square_width";
+            public static final String SQUARE_HEIGHT = "square_height";
+            public static final String MEDIUM_URL = "medium_url";
+            public static final String MEDIUM_WIDTH = "medium_width";
+            public static final String MEDIUM_HEIGHT = "medium_height";
+        }
+    }
+
+    // The color shown in a photo's cell until its thumbnail is there, by the photo rather than the page it's on
+    public static final class PreviewTable {
+        public static final String NAME = "previews";
+
+        public static final class Cols {
+            public static final String PHOTO_ID = "photo_id";
+            public static final String COLOR = "color";
+        }
+    }
+}
@@ -3,12 +3,56 @@ package cz.zdrubecky.photogallery;
 import com.google.gson.annotations.SerializedName;
 
 public class GalleryItem {
+    // The sizes, named after Flickr's extras
+    public static final char SIZE_THUMBNAIL = 't';
+    public static final char SIZE_SQUARE = 'q';
+    public static final char SIZE_SMALL = 's';
+    public static final char SIZE_MEDIUM = 'm';
+    // Fully transparent, a real preview is always opaque
+    public static final int NO_PREVIEW_COLOR = 0;
+    // A size covers a cell once both its sides are at least this much of the cell's, the view scales it up the rest of the way
+    // The app always showed url_s, which is 0.44 of a 360 px xxhdpi cell (url_q 0.42), so this is about as sharp as it ever was,
+    // while requiring the full cell would pick url_m (three times the bytes) on every phone from xhdpi up
+    private static final float MIN_COVERAGE = 0.4f;
+
     @SerializedName("title")
     private String mCaption;
     @SerializedName("id")
     private String mId;
+    // The small size (240 px on the longer side), the default one
     @SerializedName("url_s")
     private String mUrl;
+    @SerializedName("width_s")
+    private int mWidth;
+    @SerializedName("height_s")
+    private int mHeight;
+
+    // The other sizes, from the smallest, Flickr sends the dimensions along with every url
+    // 100 px on the longer side
+    @SerializedName("url_t")
+    private String mThumbnailUrl;
+    @SerializedName("width_t")
+    private int mThumbnailWidth;
+    @SerializedName("height_t")
+    private int mThumbnailHeight;
+    // A 150 px square, cropped
+    @SerializedName("url_q")
+    private String mSquareUrl;
+    @SerializedName("width_q")
+    private int mSquareWidth;
+    @SerializedName("height_q")
+    private int mSquareHeight;
+    // 500 px on the longer side
+    @SerializedName("url_m")
+    private String mMediumUrl;
+    @SerializedName("width_m")
+    private int mMediumWidth;
+    @SerializedName("height_m")
+    private int mMediumHeight;
+
+    // The average color of the thumbnail, worked out the first time it's decoded, none until then
+    // It's ours, not Flickr's, so Gson leaves it alone
+    private transient int mPreviewColor = NO_PREVIEW_COLOR;
 
     @Override
     public String toString() {
@@ -38,4 +82,136 @@ public class GalleryItem {
     public void setUrl(String url) {
         mUrl = url;
     }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public void setSize(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    public String getThumbnailUrl() {
+        return mThumbnailUrl;
+    }
+
+    public int getThumbnailWidth() {
+        return mThumbnailWidth;
+    }
+
+    public int getThumbnailHeight() {
+        return mThumbnailHeight;
+    }
+
+    public void setThumbnail(String url, int width, int height) {
+        mThumbnailUrl = url;
+        mThumbnailWidth = width;
+        mThumbnailHeight = height;
+    }
+
+    public String getSquareUrl() {
+        return mSquareUrl;
+    }
+
+    public int getSquareWidth() {
+        return mSquareWidth;
+    }
+
+    public int getSquareHeight() {
+        return mSquareHeight;
+    }
+
+    public void setSquare(String url, int width, int height) {
+        mSquareUrl = url;
+        mSquareWidth = width;
+        mSquareHeight = height;
+    }
+
+    public String getMediumUrl() {
+        return mMediumUrl;
+    }
+
+    public int getMediumWidth() {
+        return mMediumWidth;
+    }
+
+    public int getMediumHeight() {
+        return mMediumHeight;
+    }
+
+    public void setMedium(String url, int width, int height) {
+        mMediumUrl = url;
+        mMediumWidth = width;
+        mMediumHeight = height;
+    }
+
+    public int getPreviewColor() {
+        return mPreviewColor;
+    }
+
+    public boolean hasPreviewColor() {
+        return mPreviewColor != NO_PREVIEW_COLOR;
+    }
+
+    public void setPreviewColor(int previewColor) {
+        mPreviewColor = previewColor;
+    }
+
+    // The smallest size which covers a view of the given size (see MIN_COVERAGE), the views crop the photo so both sides count
+    // If none does, the largest one there is, and with no view size at all (or an item stored before the sizes), the default one
+    public String getUrlFor(int width, int height) {
+        return getUrl(getSizeFor(width, height));
+    }
+
+    // One of the SIZE_ codes, which is what the thumbnails of this photo are told apart by
+    public char getSizeFor(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return mUrl != null ? SIZE_SMALL : getLargestSize();
+        }
+
+        if (covers(mThumbnailUrl, mThumbnailWidth, mThumbnailHeight, width, height)) {
+            return SIZE_THUMBNAIL;
+        }
+        if (covers(mSquareUrl, mSquareWidth, mSquareHeight, width, height)) {
+            return SIZE_SQUARE;
+        }
+        if (covers(mUrl, mWidth, mHeight, width, height)) {
+            return SIZE_SMALL;
+        }
+
+        return getLargestSize();
+    }
+
+    public String getUrl(char size) {
+        switch (size) {
+            case SIZE_THUMBNAIL:
+                return mThumbnailUrl;
+            case SIZE_SQUARE:
+                return mSquareUrl;
+            case SIZE_MEDIUM:
+                return mMediumUrl;
+            default:
+                return mUrl;
+        }
+    }
+
+    private char getLargestSize() {
+        if (mMediumUrl != null) {
+            return SIZE_MEDIUM;
+        }
+        if (mUrl != null) {
+            return SIZE_SMALL;
+        }
+
+        return mSquareUrl != null ? SIZE_SQUARE : SIZE_THUMBNAIL;
+    }
+
+    private static boolean covers(String url, int width, int height, int targetWidth, int targetHeight) {
+        return url != null && width >= targetWidth * MIN_COVERAGE && height >= targetHeight * MIN_COVERAGE;
+    }
 }
@@ -0,0 +1,83 @@
+package cz.zdrubecky.photogallery;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+// Turns the Flickr REST responses into gallery items
+// The streaming way reads the response once, token by token, straight from the connection - no String, no DOM and no second pass
+public class GalleryItemParser {
+    // Building Gson and its reflective adapters is expensive, so do it once per process (both are thread-safe)
+    private static final Gson sGson = new GsonBuilder().create();
+    private static final TypeAdapter<GalleryItem> sItemAdapter = sGson.getAdapter(GalleryItem.class);
+
+    // The response looks like {"photos": {"page": 1, ..., "photo": [{...}, {...}]}, "stat": "ok"}
+    public static List<GalleryItem> parse(InputStream in) throws IOException {
+        return parse(new InputStreamReader(in, "UTF-8"));
+    }
+
+    public static List<GalleryItem> parse(Reader in) throws IOException {
+        List<GalleryItem> items = new ArrayList<>();
+        JsonReader reader = new JsonReader(in);
+        String errorMessage = null;
+
+        try {
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+
+                if (name.equals("photos")) {
+                    readPhotos(reader, items);
+                } else if (name.equals("message")) {
+                    // Only present when the stat is "fail"
+                    errorMessage = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+
+            reader.endObject();
+        } catch (IllegalStateException | JsonParseException e) {
+            // Gson's way of saying the document doesn't look like we expected
+            throw new IOException("Unexpected JSON structure", e);
+        } finally {
+            reader.close();
+        }
+
+        if (errorMessage != null) {
+            throw new IOException("Flickr refused the request: " + errorMessage);
+        }
+
+        return items;
+    }
+
+    private static void readPhotos(JsonReader reader, List<GalleryItem> items) throws IOException {
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("photo")) {
+                reader.beginArray();
+
+                while (reader.hasNext()) {
+                    items.add(sItemAdapter.read(reader));
+                }
+
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+
+        reader.endObject();
+    }
+}
@@ -0,0 +1,280 @@
+package cz.zdrubecky.photogallery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The items of an endless gallery, kept page by page
+// Only the pages around the viewport hold their items (the urls and captions are what takes the memory),
+// the pages further away are evicted down to their ids and restored through the PageRestorer once they're bound again
+// The positions never move, an evicted page keeps its place and its size, its cells only show the placeholder until it's back
+// Every photo is there just once, the ones Flickr sends again on a later page (getRecent shifts while we scroll) are dropped
+// The ids stay for the whole list, 8 bytes per photo in the pages plus the set, so ten thousand photos cost a few hundred KB
+public class GalleryPagedList {
+    private final String mQuery;
+    private final int mPagesAround;
+    private final PageRestorer mPageRestorer;
+    // Page n sits at the index n - 1
+    private Page[] mPages = new Page[8];
+    private int mPageCount;
+    private int mSize;
+    // Every id in the list, whether its page is loaded or not
+    private final LongHashSet mIds = new LongHashSet();
+
+    // Loads an evicted page again, asynchronously, and hands it over to restorePage()
+    public interface PageRestorer {
+        void restorePage(GalleryPagedList items, int page);
+    }
+
+    private static class Page {
+        private final int mStart;
+        private final long[] mIds;
+        // Null while the page is evicted
+        private GalleryItem[] mItems;
+        // So a page is asked for once, not on every bind of its cells
+        private boolean mIsRestoring;
+
+        public Page(int start, long[] ids) {
+            mStart = start;
+            mIds = ids;
+        }
+
+        public boolean isLoaded() {
+            return mItems != null;
+        }
+
+        public void evict() {
+            mItems = null;
+            mIsRestoring = false;
+        }
+    }
+
+    // The viewport's pages are kept along with this many pages on either side of them
+    public GalleryPagedList(String query, int pagesAround, PageRestorer pageRestorer) {
+        mQuery = query;
+        mPagesAround = pagesAround;
+        mPageRestorer = pageRestorer;
+    }
+
+    // What the pages were fetched for, the restored ones have to come from the same place
+    public String getQuery() {
+        return mQuery;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public int getPageCount() {
+        return mPageCount;
+    }
+
+    // Null if the page is evicted, it's restored in the meantime
+    public GalleryItem get(int position) {
+        int pageIndex = findPage(position);
+        Page page = mPages[pageIndex];
+
+        if (!page.isLoaded()) {
+            // The page numbers follow the indices
+            if (!page.mIsRestoring) {
+                page.mIsRestoring = true;
+                mPageRestorer.restorePage(this, pageIndex + 1);
+            }
+            return null;
+        }
+
+        return page.mItems[position - page.mStart];
+    }
+
+    // Null if the page is evicted, and it isn't restored for it (the prefetching looks at the positions off the screen)
+    public GalleryItem peek(int position) {
+        Page page = mPages[findPage(position)];
+
+        return page.isLoaded() ? page.mItems[position - page.mStart] : null;
+    }
+
+    // Adds the next page, without the photos the list already has, and returns how many were added
+    public int appendPage(List<GalleryItem> items) {
+        long[] ids = new long[items.size()];
+        GalleryItem[] pageItems = new GalleryItem[items.size()];
+        int count = 0;
+
+        for (GalleryItem item : items) {
+            long id = SeenPhotoIds.parseId(item.getId());
+
+            // The ids which aren't numbers can't be told apart, Flickr doesn't send those anyway
+            if (id != -1 && mIds.add(id)) {
+                ids[count] = id;
+                pageItems[count] = item;
+                count++;
+            }
+        }
+
+        Page page = new Page(mSize, trim(ids, count));
+        page.mItems = trim(pageItems, count);
+
+        if (mPageCount == mPages.length) {
+            Page[] pages = new Page[mPages.length * 2];
+            System.arraycopy(mPages, 0, pages, 0, mPageCount);
+            mPages = pages;
+        }
+
+        mPages[mPageCount++] = page;
+        mSize += count;
+
+        return count;
+    }
+
+    // Fills an evicted page again, the photos are matched by their ids and the rest of the items is ignored
+    // A photo which isn't there anymore keeps its place, as an item with nothing but the id
+    // Returns false if there's nothing to fill, an empty list means the restore failed and it may be asked for again
+    public boolean restorePage(int pageNumber, List<GalleryItem> items) {
+        if (pageNumber < 1 || pageNumber > mPageCount) {
+            return false;
+        }
+
+        Page page = mPages[pageNumber - 1];
+
+        if (page.isLoaded() || !page.mIsRestoring) {
+            return false;
+        }
+
+        if (items.isEmpty()) {
+            page.mIsRestoring = false;
+            return false;
+        }
+
+        GalleryItem[] pageItems = new GalleryItem[page.mIds.length];
+        // The items mostly come in the same order as before, so the search goes on from the last match
+        int next = 0;
+
+        for (GalleryItem item : items) {
+            long id = SeenPhotoIds.parseId(item.getId());
+
+            for (int i = 0; i < page.mIds.length; i++) {
+                int index = (next + i) % page.mIds.length;
+
+                if (page.mIds[index] == id) {
+                    pageItems[index] = item;
+                    next = index + 1;
+                    break;
+                }
+            }
+        }
+
+        for (int i = 0; i < pageItems.length; i++) {
+            if (pageItems[i] == null) {
+                pageItems[i] = createItem(page.mIds[i]);
+            }
+        }
+
+        page.mItems = pageItems;
+        page.mIsRestoring = false;
+
+        return true;
+    }
+
+    // The first position of a page (1-based, like Flickr's)
+    public int getPageStart(int pageNumber) {
+        return mPages[pageNumber - 1].mStart;
+    }
+
+    // The number of the page holding the position, an emptied page never does
+    public int getPageOf(int position) {
+        return findPage(position) + 1;
+    }
+
+    public int getPageSize(int pageNumber) {
+        return mPages[pageNumber - 1].mIds.length;
+    }
+
+    // Call it on every scroll, the pages too far from the visible positions are evicted
+    // Returns the number of the pages evicted
+    public int setViewport(int firstPosition, int lastPosition) {
+        if (mSize == 0 || firstPosition < 0 || lastPosition < firstPosition) {
+            return 0;
+        }
+
+        int first = findPage(Math.min(firstPosition, mSize - 1)) - mPagesAround;
+        int last = findPage(Math.min(lastPosition, mSize - 1)) + mPagesAround;
+        int evicted = 0;
+
+        for (int i = 0; i < mPageCount; i++) {
+            if ((i < first || i > last) && mPages[i].isLoaded()) {
+                mPages[i].evict();
+                evicted++;
+            }
+        }
+
+        return evicted;
+    }
+
+    // All of it as items, for comparing the lists, the evicted photos come with nothing but their ids
+    public List<GalleryItem> toList() {
+        List<GalleryItem> items = new ArrayList<>(mSize);
+
+        for (int i = 0; i < mPageCount; i++) {
+            Page page = mPages[i];
+
+            for (int index = 0; index < page.mIds.length; index++) {
+                items.add(page.isLoaded() ? page.mItems[index] : createItem(page.mIds[index]));
+            }
+        }
+
+        return items;
+    }
+
+    // The index of the page holding the position, the last one starting at or before it
+    private int findPage(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Position " + position + " of " + mSize);
+        }
+
+        int low = 0;
+        int high = mPageCount - 1;
+
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+
+            if (mPages[middle].mStart <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    private static GalleryItem createItem(long id) {
+        GalleryItem item = new GalleryItem();
+        item.setId(Long.toString(id));
+
+        return item;
+    }
+
+    private static long[] trim(long[] array, int length) {
+        if (array.length == length) {
+            return array;
+        }
+
+        long[] trimmed = new long[length];
+        System.arraycopy(array, 0, trimmed, 0, length);
+
+        return trimmed;
+    }
+
+    private static GalleryItem[] trim(GalleryItem[] array, int length) {
+        if (array.length == length) {
+            return array;
+        }
+
+        GalleryItem[] trimmed = new GalleryItem[length];
+        System.arraycopy(array, 0, trimmed, 0, length);
+
+        return trimmed;
+    }
+}
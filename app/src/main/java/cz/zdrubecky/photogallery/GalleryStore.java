@@ -0,0 +1,233 @@
+package cz.zdrubecky.photogallery;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cz.zdrubecky.photogallery.GalleryDbSchema.ItemTable;
+import cz.zdrubecky.photogallery.GalleryDbSchema.PageTable;
+import cz.zdrubecky.photogallery.GalleryDbSchema.PreviewTable;
+
+// The pages fetched from Flickr, kept in a database so the gallery has something to show before the network answers
+// Everyone writing pages (the fragment through FlickrFetchr, the poll service) shares this one instance
+public class GalleryStore {
+    // After this long a page is still shown, but it's fetched again right away
+    private static final long PAGE_TTL = 5 * 60 * 1000;
+    // Pages older than this are useless even as a first impression, they're deleted
+    private static final long PAGE_MAX_AGE = 24 * 60 * 60 * 1000;
+    // The recent photos have no query, the key can't be null though
+    private static final String NO_QUERY = "";
+
+    private static GalleryStore sGalleryStore;
+
+    private SQLiteDatabase mDatabase;
+
+    // A page as it was stored, along with the time it was fetched
+    public static class StoredPage {
+        private final List<GalleryItem> mItems;
+        private final long mFetchedAt;
+
+        private StoredPage(List<GalleryItem> items, long fetchedAt) {
+            mItems = items;
+            mFetchedAt = fetchedAt;
+        }
+
+        public List<GalleryItem> getItems() {
+            return mItems;
+        }
+
+        public boolean isStale(long now) {
+            return now - mFetchedAt > PAGE_TTL;
+        }
+    }
+
+    public static synchronized GalleryStore get(Context context) {
+        if (sGalleryStore == null) {
+            sGalleryStore = new GalleryStore(context);
+        }
+
+        return sGalleryStore;
+    }
+
+    private GalleryStore(Context context) {
+        // The application context lives as long as the singleton does
+        mDatabase = new GalleryBaseHelper(context.getApplicationContext()).getWritableDatabase();
+    }
+
+    // Returns null if the page has never been stored
+    public StoredPage getPage(String query, int page) {
+        String[] whereArgs = new String[] { toKey(query), Integer.toString(page) };
+        long fetchedAt;
+
+        Cursor pageCursor = mDatabase.query(PageTable.NAME, new String[] { PageTable.Cols.FETCHED_AT },
+                PageTable.Cols.QUERY + " = ? and " + PageTable.Cols.PAGE + " = ?", whereArgs,
+                null, null, null);
+
+        try {
+            if (!pageCursor.moveToFirst()) {
+                return null;
+            }
+
+            fetchedAt = pageCursor.getLong(0);
+        } finally {
+            pageCursor.close();
+        }
+
+        List<GalleryItem> items = new ArrayList<>();
+        GalleryCursorWrapper cursor = new GalleryCursorWrapper(mDatabase.query(ItemTable.NAME, null,
+                ItemTable.Cols.QUERY + " = ? and " + ItemTable.Cols.PAGE + " = ?", whereArgs,
+                null, null, ItemTable.Cols.POSITION));
+
+        try {
+            cursor.moveToFirst();
+
+            while (!cursor.isAfterLast()) {
+                items.add(cursor.getGalleryItem());
+                cursor.moveToNext();
+            }
+        } finally {
+            cursor.close();
+        }
+
+        fillPreviewColors(items);
+
+        return new StoredPage(items, fetchedAt);
+    }
+
+    // Sets the preview colors known for the items, a single query for the whole page
+    public void fillPreviewColors(List<GalleryItem> items) {
+        Map<String, GalleryItem> itemsById = new HashMap<>();
+
+        for (GalleryItem item : items) {
+            if (item.getId() != null && !item.hasPreviewColor()) {
+                itemsById.put(item.getId(), item);
+            }
+        }
+
+        if (itemsById.isEmpty()) {
+            return;
+        }
+
+        // A page is a hundred photos at most, well within the limit on the arguments
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < itemsById.size(); i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+        }
+
+        Cursor cursor = mDatabase.query(PreviewTable.NAME, new String[] { PreviewTable.Cols.PHOTO_ID, PreviewTable.Cols.COLOR },
+                PreviewTable.Cols.PHOTO_ID + " in (" + placeholders + ")", itemsById.keySet().toArray(new String[itemsById.size()]),
+                null, null, null);
+
+        try {
+            while (cursor.moveToNext()) {
+                itemsById.get(cursor.getString(0)).setPreviewColor(cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Four bytes per photo, kept as long as any stored page shows the photo
+    // A screenful of them comes in at once, they go in one transaction rather than a journal sync per photo
+    public void putPreviewColors(Map<String, Integer> colorsById) {
+        if (colorsById.isEmpty()) {
+            return;
+        }
+
+        ContentValues values = new ContentValues();
+
+        mDatabase.beginTransaction();
+
+        try {
+            for (Map.Entry<String, Integer> entry : colorsById.entrySet()) {
+                values.put(PreviewTable.Cols.PHOTO_ID, entry.getKey());
+                values.put(PreviewTable.Cols.COLOR, entry.getValue());
+                mDatabase.insertWithOnConflict(PreviewTable.NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    // Replaces whatever the page held before, all at once
+    public void putPage(String query, int page, List<GalleryItem> items) {
+        String key = toKey(query);
+        String[] whereArgs = new String[] { key, Integer.toString(page) };
+        long now = System.currentTimeMillis();
+
+        mDatabase.beginTransaction();
+
+        try {
+            mDatabase.delete(ItemTable.NAME,
+                    ItemTable.Cols.QUERY + " = ? and " + ItemTable.Cols.PAGE + " = ?", whereArgs);
+
+            for (int i = 0; i < items.size(); i++) {
+                mDatabase.insert(ItemTable.NAME, null, getContentValues(key, page, i, items.get(i)));
+            }
+
+            ContentValues pageValues = new ContentValues();
+            pageValues.put(PageTable.Cols.QUERY, key);
+            pageValues.put(PageTable.Cols.PAGE, page);
+            pageValues.put(PageTable.Cols.FETCHED_AT, now);
+            mDatabase.insertWithOnConflict(PageTable.NAME, null, pageValues, SQLiteDatabase.CONFLICT_REPLACE);
+
+            deleteOldPages(now - PAGE_MAX_AGE);
+
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    private void deleteOldPages(long fetchedBefore) {
+        String[] whereArgs = new String[] { Long.toString(fetchedBefore) };
+
+        // The items first, they're found through their pages
+        mDatabase.delete(ItemTable.NAME,
+                "exists (select 1 from " + PageTable.NAME + " p where p." + PageTable.Cols.QUERY + " = " + ItemTable.NAME + "." + ItemTable.Cols.QUERY +
+                        " and p." + PageTable.Cols.PAGE + " = " + ItemTable.NAME + "." + ItemTable.Cols.PAGE +
+                        " and p." + PageTable.Cols.FETCHED_AT + " < ?)", whereArgs);
+        int deleted = mDatabase.delete(PageTable.NAME, PageTable.Cols.FETCHED_AT + " < ?", whereArgs);
+
+        // The previews of the photos no page shows anymore, it's a scan over all the items, so only once some pages have gone
+        if (deleted > 0) {
+            mDatabase.delete(PreviewTable.NAME, PreviewTable.Cols.PHOTO_ID + " not in (select " + ItemTable.Cols.PHOTO_ID +
+                    " from " + ItemTable.NAME + " where " + ItemTable.Cols.PHOTO_ID + " is not null)", null);
+        }
+    }
+
+    private static ContentValues getContentValues(String key, int page, int position, GalleryItem item) {
+        ContentValues values = new ContentValues();
+        values.put(ItemTable.Cols.QUERY, key);
+        values.put(ItemTable.Cols.PAGE, page);
+        values.put(ItemTable.Cols.POSITION, position);
+        values.put(ItemTable.Cols.PHOTO_ID, item.getId());
+        values.put(ItemTable.Cols.TITLE, item.getCaption());
+        values.put(ItemTable.Cols.URL, item.getUrl());
+        values.put(ItemTable.Cols.WIDTH, item.getWidth());
+        values.put(ItemTable.Cols.HEIGHT, item.getHeight());
+        values.put(ItemTable.Cols.THUMBNAIL_URL, item.getThumbnailUrl());
+        values.put(ItemTable.Cols.THUMBNAIL_WIDTH, item.getThumbnailWidth());
+        values.put(ItemTable.Cols.THUMBNAIL_HEIGHT, item.getThumbnailHeight());
+        values.put(ItemTable.Cols.SQUARE_URL, item.getSquareUrl());
+        values.put(ItemTable.Cols.SQUARE_WIDTH, item.getSquareWidth());
+        values.put(ItemTable.Cols.SQUARE_HEIGHT, item.getSquareHeight());
+        values.put(ItemTable.Cols.MEDIUM_URL, item.getMediumUrl());
+        values.put(ItemTable.Cols.MEDIUM_WIDTH, item.getMediumWidth());
+        values.put(ItemTable.Cols.MEDIUM_HEIGHT, item.getMediumHeight());
+
+        return values;
+    }
+
+    private static String toKey(String query) {
+        return query == null ? NO_QUERY : query;
+    }
+}
@@ -0,0 +1,214 @@
+package cz.zdrubecky.photogallery;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Locale;
+
+// Keeps the REST responses on the disk together with their validators (ETag, Last-Modified) and the time they stop being fresh
+// A fresh response is served without asking, a stale one is revalidated and the server only answers "304 Not Modified" if nothing changed
+// Every entry is a single file: the header written by DataOutputStream, then the body as it came (already unzipped)
+public class HttpCache {
+    private static final String TAG = "HttpCache";
+    private static final String DISK_CACHE_DIR = "http";
+    private static final long DISK_CACHE_SIZE = 2 * 1024 * 1024;
+
+    private static HttpCache sHttpCache;
+
+    private final DiskCache mDiskCache;
+
+    // What we know about a stored response, its body is read through getBody()
+    public static class CachedResponse {
+        private final String mETag;
+        private final String mLastModified;
+        private final long mExpiresAt;
+        private InputStream mBody;
+
+        public CachedResponse(String eTag, String lastModified, long expiresAt) {
+            mETag = eTag;
+            mLastModified = lastModified;
+            mExpiresAt = expiresAt;
+        }
+
+        public boolean isFresh(long now) {
+            return now < mExpiresAt;
+        }
+
+        // Turn the plain request into a conditional one
+        public void addValidators(HttpURLConnection connection) {
+            if (mETag != null) {
+                connection.setRequestProperty("If-None-Match", mETag);
+            }
+
+            // Sent back exactly as the server formatted it
+            if (mLastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", mLastModified);
+            }
+        }
+
+        // Only for the responses returned by lookup(), the caller has to close it
+        public InputStream getBody() {
+            return mBody;
+        }
+
+        public void close() {
+            if (mBody != null) {
+                try {
+                    mBody.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private HttpCache(DiskCache diskCache) {
+        mDiskCache = diskCache;
+    }
+
+    // Returns null if the cache can't be opened, the requests just go unconditional then
+    public static synchronized HttpCache get(Context context) {
+        if (sHttpCache == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(), DISK_CACHE_DIR);
+
+            try {
+                sHttpCache = new HttpCache(DiskCache.open(directory, DISK_CACHE_SIZE));
+            } catch (IOException ioe) {
+                Log.e(TAG, "Failed to open the HTTP cache.", ioe);
+            }
+        }
+
+        return sHttpCache;
+    }
+
+    // Reads what the response says about its own caching, null means it must not (or can't usefully) be stored
+    public static CachedResponse fromConnection(HttpURLConnection connection, long now) {
+        return fromConnection(connection, now, null);
+    }
+
+    // A 304 refreshes the stored response, but it often comes with just the max-age
+    // The validators it leaves out are the stored ones, losing them would make the next request unconditional
+    public static CachedResponse fromNotModified(HttpURLConnection connection, long now, CachedResponse stored) {
+        return fromConnection(connection, now, stored);
+    }
+
+    private static CachedResponse fromConnection(HttpURLConnection connection, long now, CachedResponse stored) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        long expiresAt = 0;
+        boolean hasMaxAge = false;
+
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.US);
+
+                if (directive.equals("no-store")) {
+                    return null;
+                } else if (directive.equals("no-cache")) {
+                    // Stored, but never fresh without asking
+                    expiresAt = 0;
+                    hasMaxAge = true;
+                    break;
+                } else if (directive.startsWith("max-age=")) {
+                    try {
+                        expiresAt = now + Long.parseLong(directive.substring("max-age=".length())) * 1000;
+                        hasMaxAge = true;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+
+        // max-age wins over the older Expires header
+        if (!hasMaxAge && connection.getExpiration() > 0) {
+            expiresAt = connection.getExpiration();
+        }
+
+        String eTag = connection.getHeaderField("ETag");
+        String lastModified = connection.getHeaderField("Last-Modified");
+
+        if (stored != null) {
+            if (eTag == null) {
+                eTag = stored.mETag;
+            }
+            if (lastModified == null) {
+                lastModified = stored.mLastModified;
+            }
+        }
+
+        // Never fresh and nothing to revalidate with, keeping it would be pointless
+        if (expiresAt <= now && eTag == null && lastModified == null) {
+            return null;
+        }
+
+        return new CachedResponse(eTag, lastModified, expiresAt);
+    }
+
+    // The returned response holds its body stream open, close() it when done
+    public CachedResponse lookup(String url) throws IOException {
+        InputStream in = mDiskCache.getInputStream(DiskCache.keyFor(url));
+
+        if (in == null) {
+            return null;
+        }
+
+        try {
+            DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+            CachedResponse response = new CachedResponse(readOptionalString(data), readOptionalString(data), data.readLong());
+            // The rest of the file is the body
+            response.mBody = data;
+
+            return response;
+        } catch (IOException ioe) {
+            in.close();
+            mDiskCache.remove(DiskCache.keyFor(url));
+            throw ioe;
+        }
+    }
+
+    // Copies the body into the cache, false means someone else is storing the same url and the body was left untouched
+    public boolean put(String url, CachedResponse response, InputStream body) throws IOException {
+        DiskCache.Editor editor = mDiskCache.edit(DiskCache.keyFor(url));
+
+        if (editor == null) {
+            return false;
+        }
+
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(editor.newOutputStream()));
+
+            try {
+                writeOptionalString(out, response.mETag);
+                writeOptionalString(out, response.mLastModified);
+                out.writeLong(response.mExpiresAt);
+                ByteStreams.copy(body, out, FlickrFetchr.getBufferPool());
+            } finally {
+                out.close();
+            }
+
+            editor.commit();
+
+            return true;
+        } finally {
+            editor.abortUnlessCommitted();
+        }
+    }
+
+    private static void writeOptionalString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readOptionalString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
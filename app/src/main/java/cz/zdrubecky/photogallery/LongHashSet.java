@@ -0,0 +1,99 @@
+package cz.zdrubecky.photogallery;
+
+// A set of longs without the boxing, open addressing with linear probing in a single array
+// A HashSet<Long> takes some 50 bytes per entry, this one 16 at the most (the table is kept at most half full)
+// Zero marks an empty slot, so the zero itself is remembered apart
+public class LongHashSet {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] mTable;
+    private int mSize;
+    private boolean mHasZero;
+
+    public LongHashSet() {
+        mTable = new long[MIN_CAPACITY];
+    }
+
+    public int size() {
+        return mSize + (mHasZero ? 1 : 0);
+    }
+
+    public boolean contains(long value) {
+        if (value == 0) {
+            return mHasZero;
+        }
+
+        int mask = mTable.length - 1;
+        for (int i = hash(value) & mask; mTable[i] != 0; i = (i + 1) & mask) {
+            if (mTable[i] == value) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Returns false if the value was already there
+    public boolean add(long value) {
+        if (value == 0) {
+            boolean added = !mHasZero;
+            mHasZero = true;
+            return added;
+        }
+
+        if ((mSize + 1) * 2 > mTable.length) {
+            rehash(mTable.length * 2);
+        }
+
+        if (!insert(mTable, value)) {
+            return false;
+        }
+
+        mSize++;
+
+        return true;
+    }
+
+    public void clear() {
+        mTable = new long[MIN_CAPACITY];
+        mSize = 0;
+        mHasZero = false;
+    }
+
+    private void rehash(int capacity) {
+        long[] table = new long[capacity];
+
+        for (long value : mTable) {
+            if (value != 0) {
+                insert(table, value);
+            }
+        }
+
+        mTable = table;
+    }
+
+    private static boolean insert(long[] table, long value) {
+        int mask = table.length - 1;
+        int i = hash(value) & mask;
+
+        while (table[i] != 0) {
+            if (table[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+
+        table[i] = value;
+
+        return true;
+    }
+
+    // The ids are mostly close to each other, so the bits are mixed up before they're masked (the finalizer of MurmurHash3)
+    static int hash(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+
+        return (int) value;
+    }
+}
@@ -0,0 +1,237 @@
+package cz.zdrubecky.photogallery;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Counts and times whatever happens on the hot paths, the fetching, downloading and decoding
+// Switched off, every call is a single read of a volatile flag and nothing else (no clock, no allocation, no strings)
+// Switched on, the latencies go to histograms with power-of-two buckets in microseconds, all of it lock-free
+// The whole thing is plain Java, so the benchmarks can use it too
+public class Metrics {
+    // 2^31 microseconds is over half an hour, nothing takes that long
+    private static final int BUCKET_COUNT = 32;
+
+    private static volatile boolean sEnabled;
+
+    private static final Histogram[] sHistograms = new Histogram[Stage.values().length];
+    private static final AtomicLong[] sCounters = new AtomicLong[Counter.values().length];
+    private static final AtomicLong[] sGauges = new AtomicLong[Gauge.values().length];
+    private static final AtomicLong[] sGaugeMaxima = new AtomicLong[Gauge.values().length];
+
+    static {
+        for (int i = 0; i < sHistograms.length; i++) {
+            sHistograms[i] = new Histogram();
+        }
+        for (int i = 0; i < sCounters.length; i++) {
+            sCounters[i] = new AtomicLong();
+        }
+        for (int i = 0; i < sGauges.length; i++) {
+            sGauges[i] = new AtomicLong();
+            sGaugeMaxima[i] = new AtomicLong();
+        }
+    }
+
+    // The timed stages
+    public enum Stage {
+        HTTP_CONNECT, HTTP_READ, JSON_PARSE, STORE_READ, THUMBNAIL_DOWNLOAD, BITMAP_DECODE, UI_POST, POLL
+    }
+
+    public enum Counter {
+        HTTP_CACHE_FRESH, HTTP_CACHE_REVALIDATED, HTTP_CACHE_MISS,
+        STORE_FRESH, STORE_STALE, STORE_MISS,
+        MEMORY_CACHE_HIT, MEMORY_CACHE_MISS, SOFT_CACHE_HIT, MEMORY_CACHE_EVICTIONS, DISK_CACHE_HIT, DISK_CACHE_MISS, IN_FLIGHT_JOINED,
+        // Given up half-way, nobody was waiting for them anymore
+        DOWNLOADS_CANCELLED,
+        // The searches served from memory, and the first pages fetched while the user was still typing
+        SEARCH_CACHE_HIT, SEARCH_CACHE_MISS, SEARCH_PREFETCHES,
+        BYTES_JSON, BYTES_THUMBNAILS, DECODE_FAILURES,
+        POLLS, POLLED_NEW_PHOTOS, WARMED_THUMBNAILS,
+        // Shown in a cell, or thrown away because the cell had moved on to another photo by the time it arrived
+        THUMBNAILS_BOUND, THUMBNAILS_DROPPED
+    }
+
+    // The values which go up and down, the highest one seen is kept as well
+    public enum Gauge {
+        DOWNLOAD_QUEUE_DEPTH, IN_FLIGHT_DOWNLOADS
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    // The start of a timed stage, zero when disabled (and stop() then does nothing)
+    public static long start() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    public static void stop(Stage stage, long startNanos) {
+        if (startNanos == 0 || !sEnabled) {
+            return;
+        }
+
+        sHistograms[stage.ordinal()].record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public static void increment(Counter counter) {
+        if (sEnabled) {
+            sCounters[counter.ordinal()].incrementAndGet();
+        }
+    }
+
+    public static void add(Counter counter, long delta) {
+        if (sEnabled) {
+            sCounters[counter.ordinal()].addAndGet(delta);
+        }
+    }
+
+    // The value is worked out before the flag is checked, the callers guard anything costly with isEnabled()
+    public static void setGauge(Gauge gauge, long value) {
+        if (!sEnabled) {
+            return;
+        }
+
+        sGauges[gauge.ordinal()].set(value);
+
+        AtomicLong maximum = sGaugeMaxima[gauge.ordinal()];
+        long current;
+        while (value > (current = maximum.get()) && !maximum.compareAndSet(current, value)) {
+            // Somebody else has raised it in the meantime, try again
+        }
+    }
+
+    public static long getCount(Counter counter) {
+        return sCounters[counter.ordinal()].get();
+    }
+
+    public static long getSampleCount(Stage stage) {
+        return sHistograms[stage.ordinal()].mCount.get();
+    }
+
+    // Returns the upper bound of the bucket holding the percentile, in microseconds
+    public static long getPercentile(Stage stage, double percentile) {
+        return sHistograms[stage.ordinal()].getPercentile(percentile);
+    }
+
+    public static void reset() {
+        for (Histogram histogram : sHistograms) {
+            histogram.reset();
+        }
+        for (AtomicLong counter : sCounters) {
+            counter.set(0);
+        }
+        for (int i = 0; i < sGauges.length; i++) {
+            sGauges[i].set(0);
+            sGaugeMaxima[i].set(0);
+        }
+    }
+
+    // Everything collected so far as a JSON object, to be logged or sent somewhere
+    // It's read while the others may still be writing, so the numbers can be a few samples apart from each other
+    public static String dump() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"timestamp\":").append(System.currentTimeMillis());
+
+        json.append(",\"stages\":{");
+        for (Stage stage : Stage.values()) {
+            if (stage.ordinal() > 0) {
+                json.append(',');
+            }
+            json.append('"').append(stage.name().toLowerCase()).append("\":");
+            sHistograms[stage.ordinal()].appendTo(json);
+        }
+
+        json.append("},\"counters\":{");
+        for (Counter counter : Counter.values()) {
+            if (counter.ordinal() > 0) {
+                json.append(',');
+            }
+            json.append('"').append(counter.name().toLowerCase()).append("\":").append(sCounters[counter.ordinal()].get());
+        }
+
+        json.append("},\"gauges\":{");
+        for (Gauge gauge : Gauge.values()) {
+            if (gauge.ordinal() > 0) {
+                json.append(',');
+            }
+            json.append('"').append(gauge.name().toLowerCase()).append("\":{\"current\":").append(sGauges[gauge.ordinal()].get())
+                    .append(",\"max\":").append(sGaugeMaxima[gauge.ordinal()].get()).append('}');
+        }
+
+        return json.append("}}").toString();
+    }
+
+    private static class Histogram {
+        // Bucket i holds the samples below 2^i microseconds (and at least 2^(i-1))
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        public void record(long micros) {
+            int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, micros)));
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mSum.addAndGet(micros);
+
+            long current;
+            while (micros > (current = mMax.get()) && !mMax.compareAndSet(current, micros)) {
+                // Raised by someone else, try again
+            }
+        }
+
+        public long getPercentile(double percentile) {
+            long count = mCount.get();
+
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += mBuckets.get(i);
+
+                if (seen >= rank) {
+                    return 1L << i;
+                }
+            }
+
+            return mMax.get();
+        }
+
+        public void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+
+        public void appendTo(StringBuilder json) {
+            long count = mCount.get();
+
+            json.append("{\"count\":").append(count)
+                    .append(",\"mean_us\":").append(count == 0 ? 0 : mSum.get() / count)
+                    .append(",\"p50_us\":").append(getPercentile(50))
+                    .append(",\"p90_us\":").append(getPercentile(90))
+                    .append(",\"p99_us\":").append(getPercentile(99))
+                    .append(",\"max_us\":").append(mMax.get())
+                    .append(",\"buckets\":[");
+
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append(mBuckets.get(i));
+            }
+
+            json.append("]}");
+        }
+    }
+}
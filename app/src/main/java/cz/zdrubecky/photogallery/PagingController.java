@@ -0,0 +1,84 @@
+package cz.zdrubecky.photogallery;
+
+// Decides when to load the next page of an endless list
+// The next page is requested as soon as the user gets within a threshold of the end, not when he's already hit it,
+// and there's never more than one page in flight, however many scroll callbacks come in the meantime
+// Every reset (a new query) starts a new generation, so the pages of the old one arriving late are recognized and dropped
+// A reset can also ask for several pages at once (to get back where the user was), they count as a single load
+public class PagingController {
+    private final int mThreshold;
+    private final PageLoader mPageLoader;
+    // The last page which has arrived, zero before the first one
+    private int mCurrentPage;
+    // The pages being loaded right now, zero if none
+    private int mFirstLoadingPage;
+    private int mLoadingPage;
+    private int mGeneration;
+
+    // Does the actual loading, asynchronously, and reports back through onPageLoaded() once for the whole range
+    public interface PageLoader {
+        void loadPages(int firstPage, int lastPage, int generation);
+    }
+
+    // The threshold is the number of items left below the last visible one
+    public PagingController(int threshold, PageLoader pageLoader) {
+        mThreshold = threshold;
+        mPageLoader = pageLoader;
+    }
+
+    // Throw away everything and load the first page again
+    public void reset() {
+        reset(1);
+    }
+
+    // The same, but the first pageCount pages are loaded in one go
+    public void reset(int pageCount) {
+        mGeneration++;
+        mCurrentPage = 0;
+        mLoadingPage = 0;
+
+        requestPages(1, Math.max(1, pageCount));
+    }
+
+    // Call it on every scroll, it's cheap
+    public void onScrolled(int lastVisiblePosition, int itemCount) {
+        if (mLoadingPage != 0 || mCurrentPage == 0 || itemCount == 0) {
+            return;
+        }
+
+        if (itemCount - 1 - lastVisiblePosition <= mThreshold) {
+            requestPages(mCurrentPage + 1, mCurrentPage + 1);
+        }
+    }
+
+    // Returns false if the page belongs to an older generation or nobody asked for it, then it should be dropped
+    // An empty page counts as a failure (the fetcher can't tell us which one it was) and the next scroll tries again
+    // A range may come back cut short, the page is then the last one which made it (and the item count is of all of them)
+    public boolean onPageLoaded(int page, int generation, int itemCount) {
+        if (!isLoading(page, generation)) {
+            return false;
+        }
+
+        mLoadingPage = 0;
+
+        // An empty first page still has to replace the old list (a search with no results), the later ones are just dropped
+        if (itemCount == 0) {
+            return page == 1;
+        }
+
+        mCurrentPage = page;
+
+        return true;
+    }
+
+    // Whether this very page is still awaited, so that whatever is shown of it in the meantime isn't out of place
+    public boolean isLoading(int page, int generation) {
+        return generation == mGeneration && mLoadingPage != 0 && page >= mFirstLoadingPage && page <= mLoadingPage;
+    }
+
+    private void requestPages(int firstPage, int lastPage) {
+        mFirstLoadingPage = firstPage;
+        mLoadingPage = lastPage;
+        mPageLoader.loadPages(firstPage, lastPage, mGeneration);
+    }
+}
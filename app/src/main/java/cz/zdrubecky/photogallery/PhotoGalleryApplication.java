@@ -0,0 +1,69 @@
+package cz.zdrubecky.photogallery;
+
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Created before anything else in the process, the services and receivers included, not just the gallery screen
+public class PhotoGalleryApplication extends Application {
+    private static final String TAG = "PhotoGalleryApplication";
+    // One snapshot per line, appended every time the app goes to the background
+    private static final String METRICS_FILE = "metrics.jsonl";
+    // Past this the file starts over, nobody needs more than the last few hundred snapshots
+    private static final long MAX_METRICS_FILE_SIZE = 256 * 1024;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // The debug builds always measure, a release build only once the user (or a tester) switches it on in the menu
+        Metrics.setEnabled(BuildConfig.DEBUG || QueryPreferences.isMetricsOn(this));
+    }
+
+    // The UI is gone from the screen, it's the last reliable moment before the process may be killed without a word
+    // (onDestroy() hardly ever runs in the field)
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        if (level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            exportMetrics(this);
+        }
+    }
+
+    // A snapshot of everything measured since the process started, to the log and to the metrics file in the files dir
+    // Pull it with adb (run-as) or attach it to a bug report, the lines are JSON objects (see Metrics.dump())
+    public static void exportMetrics(Application application) {
+        if (!Metrics.isEnabled()) {
+            return;
+        }
+
+        final String snapshot = Metrics.dump();
+        final File file = new File(application.getFilesDir(), METRICS_FILE);
+        Log.i(TAG, "Metrics: " + snapshot);
+
+        // The disk isn't for the main thread
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    OutputStream out = new FileOutputStream(file, file.length() < MAX_METRICS_FILE_SIZE);
+
+                    try {
+                        out.write((snapshot + "\n").getBytes("UTF-8"));
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException ioe) {
+                    Log.e(TAG, "Failed to export the metrics.", ioe);
+                }
+            }
+        });
+    }
+}
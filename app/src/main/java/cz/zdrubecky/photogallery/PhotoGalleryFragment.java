@@ -4,11 +4,13 @@ import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.support.annotation.Nullable;
+import android.support.v7.util.DiffUtil;
 import android.support.v4.app.Fragment;
 import android.support.v4.view.MenuItemCompat;
 import android.support.v7.widget.GridLayoutManager;
@@ -29,17 +31,53 @@ import android.widget.TextView;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 // Extend VisibleFragment to be able to manage broadcasts
 public class PhotoGalleryFragment extends VisibleFragment {
     private static final String TAG = "PhotoGalleryFragment";
-    private static final int PAGE_SIZE = 100;
+    private static final int COLUMN_COUNT = 3;
+    // Start loading the next page this many items (ten rows) before the end of the list
+    private static final int PAGE_LOAD_THRESHOLD = 30;
+    // The pages kept on either side of the visible ones, the rest is evicted and restored when scrolled back to
+    private static final int PAGES_AROUND_VIEWPORT = 2;
+    // Getting back deep into the gallery after a restart, the pages are fetched this many at once
+    private static final int PARALLEL_PAGE_LOADS = 8;
+    // ...and no deeper than this, beyond it the user starts a bit higher up
+    private static final int MAX_RESTORED_PAGES = 16;
+
+    // Shared by the fragment instances, the threads die off when it's idle
+    private static final ThreadPoolExecutor sPageExecutor = new ThreadPoolExecutor(PARALLEL_PAGE_LOADS, PARALLEL_PAGE_LOADS,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        sPageExecutor.allowCoreThreadTimeOut(true);
+    }
 
     private RecyclerView mPhotoRecyclerView;
-    private List<GalleryItem> mItems = new ArrayList<>();
-    private static int mCurrentPage;
+    private GalleryPagedList mItems;
+    // The list mItems will become once the diffs still running are applied, null if there are none
+    private GalleryPagedList mPendingItems;
+    // Brings back the evicted pages, the stored ones first since they're exactly what was shown
+    private GalleryPagedList.PageRestorer mPageRestorer;
+    // Where to scroll once the pages of the last session are back, NO_POSITION when there's nothing to restore
+    private int mRestoredPosition = RecyclerView.NO_POSITION;
+    // Knows which page comes next and makes sure it's requested only once
+    private PagingController mPagingController;
     // The generic arg is set right here and is inferred from further on
     private ThumbnailDownloader<PhotoHolder> mThumbnailDownloader;
+    // Loading the placeholder from the resources on every bind is wasteful, the state makes cheap copies sharing the same bitmap
+    private Drawable.ConstantState mPlaceholderState;
+    // Fetches the first page of what's being typed into the search
+    private SearchPrefetcher mSearchPrefetcher;
+    // The prefetch of the query just submitted, handed over to the task fetching its first page
+    private Future<List<GalleryItem>> mSubmittedPrefetch;
 
     public static PhotoGalleryFragment newInstance() {
         return new PhotoGalleryFragment();
@@ -53,15 +91,35 @@ public class PhotoGalleryFragment extends VisibleFragment {
         setRetainInstance(true);
         setHasOptionsMenu(true);
 
-        mCurrentPage = 1;
-        QueryPreferences.setCurrentPage(getActivity(), mCurrentPage);
+        mSearchPrefetcher = new SearchPrefetcher(getActivity(), sPageExecutor);
 
-        // Suck the data!
-        updateItems();
+        mPageRestorer = new GalleryPagedList.PageRestorer() {
+            @Override
+            public void restorePage(GalleryPagedList items, int page) {
+                new RestorePageTask(items, page).execute();
+            }
+        };
+        mItems = new GalleryPagedList(null, PAGES_AROUND_VIEWPORT, mPageRestorer);
+
+        mPagingController = new PagingController(PAGE_LOAD_THRESHOLD, new PagingController.PageLoader() {
+            @Override
+            public void loadPages(int firstPage, int lastPage, int generation) {
+                String query = QueryPreferences.getStoredQuery(getActivity());
+
+                new FetchItemsTask(query, firstPage, lastPage, generation).execute();
+            }
+        });
+
+        // Suck the data! As deep as the user got the last time, all the pages at once
+        int lastPage = Math.min(QueryPreferences.getLastPage(getActivity()), MAX_RESTORED_PAGES);
+        if (lastPage > 1) {
+            mRestoredPosition = QueryPreferences.getLastPosition(getActivity());
+        }
+        mPagingController.reset(lastPage);
 
         // This fragment's handler, it will attach automatically to the caller
         Handler responseHandler = new Handler();
-        mThumbnailDownloader = new ThumbnailDownloader<>(responseHandler);
+        mThumbnailDownloader = new ThumbnailDownloader<>(getActivity(), responseHandler);
         mThumbnailDownloader.setThumbnailDownloadListener(
                 // Instantiate a new anonymous class from the interface (this is the only scenario where it's possible)
                 new ThumbnailDownloader.ThumbnailDownloadListener<PhotoHolder>() {
@@ -72,6 +130,7 @@ public class PhotoGalleryFragment extends VisibleFragment {
                         Drawable drawable = new BitmapDrawable(getResources(), thumbnail);
                         // Finally, bind the thing
                         target.bindDrawable(drawable);
+                        Metrics.increment(Metrics.Counter.THUMBNAILS_BOUND);
                     }
                 }
         );
@@ -87,23 +146,41 @@ public class PhotoGalleryFragment extends VisibleFragment {
         View v = inflater.inflate(R.layout.fragment_photo_gallery, container, false);
 
         mPhotoRecyclerView = (RecyclerView) v.findViewById(R.id.fragment_photo_gallery_recycler_view);
+        mPlaceholderState = getResources().getDrawable(R.drawable.bill_up_close).getConstantState();
+
+        // Every cell is a column wide, so there's no point in downloading or decoding more pixels than that (it changes with the rotation)
+        mThumbnailDownloader.setTargetSize(getCellWidth(getActivity()), getCellHeight(getActivity()));
 
         setupAdapter();
         Log.i(TAG, "Adapter is set, continue with setting a layout manager...");
-        mPhotoRecyclerView.setLayoutManager(new GridLayoutManager(getActivity(), 3));
+        mPhotoRecyclerView.setLayoutManager(new GridLayoutManager(getActivity(), COLUMN_COUNT));
+        // The last session's pages may have come back before the view was there
+        scrollToRestoredPosition();
+        // Queue the thumbnails ahead of the scroll, so they're decoded by the time their cells show up
+        mPhotoRecyclerView.addOnScrollListener(new ThumbnailPrefetcher(mThumbnailDownloader, new ThumbnailPrefetcher.ItemSource() {
+            @Override
+            public int getItemCount() {
+                return mItems.size();
+            }
+
+            @Override
+            public GalleryItem getItem(int position) {
+                return mItems.peek(position);
+            }
+        }));
         mPhotoRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
             @Override
             public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
                 LinearLayoutManager manager = (LinearLayoutManager) recyclerView.getLayoutManager();
 
-                // Keep checking if the the recyclerview is at the end of the page
-                if ((manager.findLastCompletelyVisibleItemPosition() + 1) == (mCurrentPage * PAGE_SIZE)) {
-                    mCurrentPage++;
-                    QueryPreferences.setCurrentPage(getActivity(), mCurrentPage);
-                    Log.i(TAG, "Fetching a new page.");
+                int first = manager.findFirstVisibleItemPosition();
+                int last = manager.findLastVisibleItemPosition();
 
-                    updateItems();
-                }
+                // Only the pages around what's on the screen keep their items
+                mItems.setViewport(first, last);
+                // And the thumbnails still waiting are re-ranked, the ones on the screen after a fling go first
+                mThumbnailDownloader.setViewport(first, last);
+                checkForNextPage();
             }
         });
 
@@ -127,12 +204,9 @@ public class PhotoGalleryFragment extends VisibleFragment {
             public boolean onQueryTextSubmit(String query) {
                 Log.d(TAG, "onQueryTextSubmit: " + query);
                 QueryPreferences.setStoredQuery(getActivity(), query);
-
-                // Reset the page counter
-                mCurrentPage = 1;
-                QueryPreferences.setCurrentPage(getActivity(), mCurrentPage);
-
-                updateItems();
+                // Typed slowly enough, the first page is most likely in memory already or on its way
+                mSubmittedPrefetch = mSearchPrefetcher.take(query);
+                startOver();
 
                 // All of these did not work thanks to the compat menu
 //                searchItem.collapseActionView();
@@ -154,6 +228,7 @@ public class PhotoGalleryFragment extends VisibleFragment {
             @Override
             public boolean onQueryTextChange(String newText) {
                 Log.d(TAG, "onQueryTextChange: " + newText);
+                mSearchPrefetcher.onQueryTextChange(newText);
                 return false;
             }
         });
@@ -167,11 +242,15 @@ public class PhotoGalleryFragment extends VisibleFragment {
         });
 
         MenuItem toggleItem = menu.findItem(R.id.menu_item_toggle_polling);
-        if (PollService.isServiceAlarmOn(getActivity())) {
+        if (PollScheduler.isPollingOn(getActivity())) {
             toggleItem.setTitle(R.string.stop_polling);
         } else {
             toggleItem.setTitle(R.string.start_polling);
         }
+
+        menu.findItem(R.id.menu_item_toggle_warming).setChecked(QueryPreferences.isWarmingOn(getActivity()));
+        // The debug builds measure no matter what, the switch is for the release ones
+        menu.findItem(R.id.menu_item_toggle_metrics).setChecked(Metrics.isEnabled());
     }
 
     @Override
@@ -179,70 +258,190 @@ public class PhotoGalleryFragment extends VisibleFragment {
         switch (item.getItemId()) {
             case R.id.menu_item_clear:
                 QueryPreferences.setStoredQuery(getActivity(), null);
-
-                // Reset the page counter
-                mCurrentPage = 1;
-                QueryPreferences.setCurrentPage(getActivity(), mCurrentPage);
-
-                updateItems();
+                startOver();
 
                 return true;
             case R.id.menu_item_toggle_polling:
-                boolean shouldStartAlarm = !PollService.isServiceAlarmOn(getActivity());
-                PollService.setServiceAlarm(getActivity(), shouldStartAlarm);
+                boolean shouldStartPolling = !PollScheduler.isPollingOn(getActivity());
+                PollScheduler.setPollingOn(getActivity(), shouldStartPolling);
                 // Tell the parent activity to refresh its menu
                 getActivity().invalidateOptionsMenu();
 
+                return true;
+            case R.id.menu_item_toggle_warming:
+                QueryPreferences.setWarmingOn(getActivity(), !item.isChecked());
+                getActivity().invalidateOptionsMenu();
+
+                return true;
+            case R.id.menu_item_toggle_metrics:
+                boolean shouldMeasure = !item.isChecked();
+                // Switched off, whatever was measured so far is exported first, it's the snapshot somebody is waiting for
+                if (!shouldMeasure) {
+                    PhotoGalleryApplication.exportMetrics(getActivity().getApplication());
+                }
+                QueryPreferences.setMetricsOn(getActivity(), shouldMeasure);
+                Metrics.setEnabled(shouldMeasure);
+                getActivity().invalidateOptionsMenu();
+
                 return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+
+        // Remember where the user is, the next start loads the pages up to that one again
+        // Not the deepest page loaded, the user may have scrolled a long way back up since
+        if (mPhotoRecyclerView != null && mRestoredPosition == RecyclerView.NO_POSITION) {
+            LinearLayoutManager manager = (LinearLayoutManager) mPhotoRecyclerView.getLayoutManager();
+            int position = Math.max(0, manager.findFirstVisibleItemPosition());
+            int page = position < mItems.size() ? mItems.getPageOf(position) : 1;
+
+            QueryPreferences.setLastPosition(getActivity(), page, position);
+        }
+    }
+
     // Catch the screen rotation here, cause the fragment is retained and is not destroyed
     @Override
     public void onDestroyView() {
         super.onDestroyView();
         mThumbnailDownloader.clearQueue();
+        // The pages arriving until the new view is created only update the items
+        mPhotoRecyclerView = null;
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
+        ThumbnailCache cache = mThumbnailDownloader.getCache();
+        Log.i(TAG, "Thumbnail cache: " + cache.getHitCount() + " hits (" + cache.getSoftHitCount() + " from the second tier), " +
+                cache.getMissCount() + " misses, " + cache.getEvictionCount() + " evictions");
+
         mThumbnailDownloader.quit();
         Log.i(TAG, "Background thread destroyed.");
-    }
-
-    private void updateItems() {
-        String query = QueryPreferences.getStoredQuery(getActivity());
-
-        new FetchItemsTask(query).execute();
+        mSearchPrefetcher.cancel();
     }
 
     private void setupAdapter() {
         // Check if the fragment is added to its activity (it receives callbacks from it)
         // We have to do this because of the background thread working
         if (isAdded()) {
-            PhotoAdapter adapter = (PhotoAdapter) mPhotoRecyclerView.getAdapter();
+            Log.i(TAG, "Setting up a new adapter...");
+            mPhotoRecyclerView.setAdapter(new PhotoAdapter(mItems));
+        }
+    }
+
+    // In pixels, the cells are the same size whatever the photo, so they never jump around as the thumbnails arrive
+    public static int getCellWidth(Context context) {
+        return context.getResources().getDisplayMetrics().widthPixels / COLUMN_COUNT;
+    }
+
+    public static int getCellHeight(Context context) {
+        return context.getResources().getDimensionPixelSize(R.dimen.gallery_item_height);
+    }
+
+    // Null while there's no view
+    private PhotoAdapter getAdapter() {
+        return mPhotoRecyclerView == null ? null : (PhotoAdapter) mPhotoRecyclerView.getAdapter();
+    }
+
+    // Keep checking how close the recyclerview is to the end, the controller fetches the next page in time
+    private void checkForNextPage() {
+        if (mPhotoRecyclerView == null) {
+            return;
+        }
+
+        LinearLayoutManager manager = (LinearLayoutManager) mPhotoRecyclerView.getLayoutManager();
+        mPagingController.onScrolled(manager.findLastVisibleItemPosition(), mItems.size());
+    }
+
+    // Only the new cells are bound, the visible ones keep their thumbnails
+    private void appendItems(List<GalleryItem> galleryItems) {
+        int start = mItems.size();
+        int added = mItems.appendPage(galleryItems);
+
+        PhotoAdapter adapter = getAdapter();
+        if (adapter != null && added > 0) {
+            adapter.notifyItemRangeInserted(start, added);
+        }
+
+        // A page of photos we already had doesn't move the end any further, so nobody would scroll to ask for the next one
+        if (added < galleryItems.size()) {
+            checkForNextPage();
+        }
+    }
+
+    // Start over from the first page, forget about the last session's
+    private void startOver() {
+        mRestoredPosition = RecyclerView.NO_POSITION;
+        mPagingController.reset();
+    }
+
+    // The pages of the last session, all of them at once, and back to where the user was
+    // Nobody has seen the list yet, there's nothing to compare it to
+    private void restoreItems(String query, List<List<GalleryItem>> pages) {
+        GalleryPagedList items = new GalleryPagedList(query, PAGES_AROUND_VIEWPORT, mPageRestorer);
+        for (List<GalleryItem> page : pages) {
+            items.appendPage(page);
+        }
+
+        mItems = items;
+        mPendingItems = null;
+
+        PhotoAdapter adapter = getAdapter();
+        if (adapter != null) {
+            adapter.setItems(mItems);
+            adapter.notifyDataSetChanged();
+            scrollToRestoredPosition();
+        }
+    }
+
+    private void scrollToRestoredPosition() {
+        if (mRestoredPosition == RecyclerView.NO_POSITION || mItems.isEmpty()) {
+            return;
+        }
+
+        mPhotoRecyclerView.scrollToPosition(Math.min(mRestoredPosition, mItems.size() - 1));
+        mRestoredPosition = RecyclerView.NO_POSITION;
+    }
+
+    // A new first page, the photos both lists have in common stay where they are
+    private void replaceItems(String query, List<GalleryItem> galleryItems) {
+        GalleryPagedList items = new GalleryPagedList(query, PAGES_AROUND_VIEWPORT, mPageRestorer);
+        items.appendPage(galleryItems);
+
+        PhotoAdapter adapter = getAdapter();
+
+        if (mPendingItems == null && (adapter == null || mItems.isEmpty())) {
+            mItems = items;
 
             if (adapter != null) {
-                // Notify the adapter that the mItems list has changed so it can adjust
                 adapter.setItems(mItems);
-                adapter.notifyDataSetChanged();
-
-                Log.i(TAG, "Adapter's items count: " + adapter.getItemCount());
+                adapter.notifyItemRangeInserted(0, mItems.size());
+            }
+            return;
+        }
 
-                if (mCurrentPage > 1) {
-                    LinearLayoutManager manager = (LinearLayoutManager) mPhotoRecyclerView.getLayoutManager();
+        // Scrolled past the first page, the old list has nothing worth keeping on the screen, the diff would only cost time
+        if (mPendingItems == null && mItems.getPageCount() > 1) {
+            mItems = items;
 
-                    // Move the position up one item
-                    manager.scrollToPosition(manager.findLastCompletelyVisibleItemPosition() + 1);
-                }
-            } else {
-                Log.i(TAG, "Setting up a new adapter...");
-                mPhotoRecyclerView.setAdapter(new PhotoAdapter(mItems));
+            if (adapter != null) {
+                adapter.setItems(mItems);
+                adapter.notifyDataSetChanged();
             }
+            return;
         }
+
+        // Comparing a few hundred items is too much for a frame, so it's done in the background
+        // The task goes to the same serial executor as the fetching, so no other page can slip in before it's applied
+        // A stored page may still be on its way in, the fresh one is then compared to that and not to what's shown now
+        GalleryPagedList oldItems = mPendingItems != null ? mPendingItems : mItems;
+        mPendingItems = items;
+        new DiffItemsTask(oldItems, items).execute();
     }
 
     // Let's run the task in a background thread and publish the results in the UI Thread
@@ -252,20 +451,155 @@ public class PhotoGalleryFragment extends VisibleFragment {
     // The generic params are: params, progress and result
     // Steps are: onPreExecute, doInBackground, onProgressUpdate and onPostExecute.
     // "Loaders" are an alternative to this if we don't want to manage the asynctask lifecycle
-    private class FetchItemsTask extends AsyncTask<Void, Void, List<GalleryItem>> {
+    // The stored page is published as progress right away, the fresh one comes as the result
+    // A range of pages (getting back where the last session ended) is fetched in parallel on the page executor
+    // and comes as a single result, in the page order
+    // The progress is the stored page itself, a List<GalleryItem> progress type would need a generic array for the varargs
+    private class FetchItemsTask extends AsyncTask<Void, GalleryStore.StoredPage, List<List<GalleryItem>>> {
         private String mQuery;
-
-        public FetchItemsTask(String query) {
+        private int mFirstPage;
+        private int mLastPage;
+        // Tells the paging controller whether the page still belongs to the current query
+        private int mGeneration;
+        // Taken here because the fragment may be detached by the time the task runs
+        private Context mContext;
+        // The fetcher with the HTTP cache and the database, both opened in the background (the first open reads the disk)
+        private FlickrFetchr mFetchr;
+        private GalleryStore mGalleryStore;
+        // The first page of the query, prefetched while it was typed, null if it wasn't
+        private Future<List<GalleryItem>> mPrefetch;
+
+        public FetchItemsTask(String query, int firstPage, int lastPage, int generation) {
             mQuery = query;
+            mFirstPage = firstPage;
+            mLastPage = lastPage;
+            mGeneration = generation;
+            mContext = getActivity().getApplicationContext();
+
+            if (firstPage == 1) {
+                mPrefetch = mSubmittedPrefetch;
+                mSubmittedPrefetch = null;
+            }
         }
 
         // String... params would receive variable amount of strings
         @Override
-        protected List<GalleryItem> doInBackground(Void... voids) {
+        protected List<List<GalleryItem>> doInBackground(Void... voids) {
+            List<List<GalleryItem>> pages = new ArrayList<>();
+            // Before any page is handed to the executor, its threads see them set
+            mFetchr = new FlickrFetchr(mContext);
+            mGalleryStore = GalleryStore.get(mContext);
+
+            if (mFirstPage == mLastPage) {
+                pages.add(fetchPage(mFirstPage, true));
+                return pages;
+            }
+
+            List<Future<List<GalleryItem>>> futures = new ArrayList<>();
+            for (int page = mFirstPage; page <= mLastPage; page++) {
+                final int pageToFetch = page;
+
+                futures.add(sPageExecutor.submit(new Callable<List<GalleryItem>>() {
+                    @Override
+                    public List<GalleryItem> call() throws Exception {
+                        return fetchPage(pageToFetch, false);
+                    }
+                }));
+            }
+
+            try {
+                // The positions follow the pages, so the first missing one cuts the rest off (the scrolling gets them later)
+                for (Future<List<GalleryItem>> future : futures) {
+                    List<GalleryItem> galleryItems = future.get();
+
+                    if (galleryItems.isEmpty()) {
+                        break;
+                    }
+
+                    pages.add(galleryItems);
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                Log.e(TAG, "Failed to fetch the pages " + mFirstPage + " to " + mLastPage, e);
+            } finally {
+                // The ones still waiting for a thread aren't needed anymore, the running ones end up in the store anyway
+                for (Future<List<GalleryItem>> future : futures) {
+                    future.cancel(false);
+                }
+            }
+
+            return pages;
+        }
+
+        // The stored page if it's fresh, Flickr otherwise, and the stored one again if Flickr fails
+        private List<GalleryItem> fetchPage(int page, boolean showStale) {
+            if (mQuery != null) {
+                // Prefetched while the user typed it (or still on its way, no point in asking Flickr twice)
+                // The prefetch only kept it in memory, it's stored now that the query is really submitted
+                if (page == 1 && mPrefetch != null) {
+                    List<GalleryItem> prefetched = awaitPrefetch();
+
+                    if (!prefetched.isEmpty()) {
+                        return mFetchr.storeSearch(mQuery, page, prefetched);
+                    }
+                }
+
+                // A search which ran a moment ago is still in memory, and in the store already
+                List<GalleryItem> cached = mFetchr.getCachedSearch(mQuery, page);
+
+                if (cached != null) {
+                    return cached;
+                }
+            }
+
+            long start = Metrics.start();
+            GalleryStore.StoredPage storedPage = mGalleryStore.getPage(mQuery, page);
+            Metrics.stop(Metrics.Stage.STORE_READ, start);
+
+            // Fresh enough, the network isn't needed at all
+            if (storedPage != null && !storedPage.isStale(System.currentTimeMillis())) {
+                Metrics.increment(Metrics.Counter.STORE_FRESH);
+                return storedPage.getItems();
+            }
+
+            Metrics.increment(storedPage == null ? Metrics.Counter.STORE_MISS : Metrics.Counter.STORE_STALE);
+
+            // An old first page is still better than an empty grid while the new one is on its way
+            if (showStale && storedPage != null && page == 1 && !storedPage.getItems().isEmpty()) {
+                publishProgress(storedPage);
+            }
+
+            List<GalleryItem> galleryItems;
+
             if (mQuery == null) {
-                return new FlickrFetchr().fetchRecentPhotos(mCurrentPage);
+                galleryItems = mFetchr.fetchRecentPhotos(page);
             } else {
-                return new FlickrFetchr().searchPhotos(mQuery, mCurrentPage);
+                galleryItems = mFetchr.searchPhotos(mQuery, page);
+            }
+
+            // Offline (or Flickr is down), the stored page is all there is
+            if (galleryItems.isEmpty() && storedPage != null) {
+                return storedPage.getItems();
+            }
+
+            return galleryItems;
+        }
+
+        // Empty if the prefetch failed or never got to run
+        private List<GalleryItem> awaitPrefetch() {
+            try {
+                return mPrefetch.get();
+            } catch (InterruptedException | ExecutionException | CancellationException e) {
+                Log.i(TAG, "The prefetched page of " + mQuery + " didn't make it", e);
+                return new ArrayList<>();
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(GalleryStore.StoredPage... values) {
+            // The controller still expects the page, it's only marked as loaded once the fresh one arrives
+            if (mPagingController.isLoading(mFirstPage, mGeneration)) {
+                Log.i(TAG, "Showing the stored page no." + mFirstPage);
+                replaceItems(mQuery, values[0].getItems());
             }
         }
 
@@ -273,16 +607,162 @@ public class PhotoGalleryFragment extends VisibleFragment {
         // Doing this in the background would result in corrupted data
         // doInBackground output is onPostExecute input
         @Override
-        protected void onPostExecute(List<GalleryItem> galleryItems) {
+        protected void onPostExecute(List<List<GalleryItem>> pages) {
+            int itemCount = 0;
+            for (List<GalleryItem> page : pages) {
+                itemCount += page.size();
+            }
+
+            // The last page which made it, a failed one is reported as itself
+            int lastPage = mFirstPage + Math.max(0, pages.size() - 1);
+
+            // A page of the previous query, or a failed one (the next scroll asks again)
+            if (!mPagingController.onPageLoaded(lastPage, mGeneration, itemCount)) {
+                Log.i(TAG, "Dropping the pages " + mFirstPage + " to " + lastPage);
+                return;
+            }
+
             Log.i(TAG, "mItems size before updating: " + mItems.size());
-            if (mCurrentPage > 1) {
-                mItems.addAll(galleryItems);
+            if (mFirstPage > 1) {
+                for (List<GalleryItem> page : pages) {
+                    appendItems(page);
+                }
+            } else if (pages.size() > 1) {
+                restoreItems(mQuery, pages);
             } else {
-                mItems = galleryItems;
+                // Whatever was to be restored didn't make it past the first page
+                mRestoredPosition = RecyclerView.NO_POSITION;
+                replaceItems(mQuery, pages.isEmpty() ? new ArrayList<GalleryItem>() : pages.get(0));
             }
             Log.i(TAG, "mItems size after updating: " + mItems.size());
+        }
+    }
+
+    // Restores an evicted page, from the database if it's still there, from Flickr otherwise
+    // A restore for a list which has been replaced in the meantime is simply dropped
+    private class RestorePageTask extends AsyncTask<Void, Void, List<GalleryItem>> {
+        private GalleryPagedList mList;
+        private int mPage;
+        private Context mContext;
+
+        public RestorePageTask(GalleryPagedList list, int page) {
+            mList = list;
+            mPage = page;
+            mContext = getActivity().getApplicationContext();
+        }
+
+        @Override
+        protected List<GalleryItem> doInBackground(Void... voids) {
+            // Opened here rather than on the main thread, the first open reads the disk
+            FlickrFetchr fetchr = new FlickrFetchr(mContext);
+            GalleryStore galleryStore = GalleryStore.get(mContext);
+
+            // However old, the stored page is the one the ids came from, a fresh one from getRecent has moved on
+            long start = Metrics.start();
+            GalleryStore.StoredPage storedPage = galleryStore.getPage(mList.getQuery(), mPage);
+            Metrics.stop(Metrics.Stage.STORE_READ, start);
+
+            if (storedPage != null && !storedPage.getItems().isEmpty()) {
+                return storedPage.getItems();
+            }
+
+            if (mList.getQuery() == null) {
+                return fetchr.fetchRecentPhotos(mPage);
+            } else {
+                return fetchr.searchPhotos(mList.getQuery(), mPage);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(List<GalleryItem> galleryItems) {
+            if (mList != mItems || !mList.restorePage(mPage, galleryItems)) {
+                return;
+            }
 
-            setupAdapter();
+            Log.i(TAG, "Restored the page no." + mPage);
+
+            PhotoAdapter adapter = getAdapter();
+            if (adapter != null) {
+                adapter.notifyItemRangeChanged(mList.getPageStart(mPage), mList.getPageSize(mPage));
+            }
+        }
+    }
+
+    private class DiffItemsTask extends AsyncTask<Void, Void, DiffUtil.DiffResult> {
+        private GalleryPagedList mOldItems;
+        private GalleryPagedList mNewItems;
+        // Taken right away, the lists change on the main thread only
+        private List<GalleryItem> mOldSnapshot;
+        private List<GalleryItem> mNewSnapshot;
+
+        public DiffItemsTask(GalleryPagedList oldItems, GalleryPagedList newItems) {
+            mOldItems = oldItems;
+            mNewItems = newItems;
+            mOldSnapshot = oldItems.toList();
+            mNewSnapshot = newItems.toList();
+        }
+
+        @Override
+        protected DiffUtil.DiffResult doInBackground(Void... voids) {
+            // The photos don't move around within a page, looking for the moves would only cost time
+            return DiffUtil.calculateDiff(new GalleryItemDiffCallback(mOldSnapshot, mNewSnapshot), false);
+        }
+
+        @Override
+        protected void onPostExecute(DiffUtil.DiffResult diffResult) {
+            PhotoAdapter adapter = getAdapter();
+            // Something else has replaced the list in the meantime, so the diff is of no use
+            boolean isStale = mItems != mOldItems;
+
+            mItems = mNewItems;
+            if (mPendingItems == mNewItems) {
+                mPendingItems = null;
+            }
+
+            if (adapter != null) {
+                adapter.setItems(mItems);
+
+                if (isStale) {
+                    adapter.notifyDataSetChanged();
+                } else {
+                    diffResult.dispatchUpdatesTo(adapter);
+                }
+            }
+        }
+    }
+
+    // The same photo is the same item, and it only has to be rebound if it looks different
+    private static class GalleryItemDiffCallback extends DiffUtil.Callback {
+        private List<GalleryItem> mOldItems;
+        private List<GalleryItem> mNewItems;
+
+        public GalleryItemDiffCallback(List<GalleryItem> oldItems, List<GalleryItem> newItems) {
+            mOldItems = oldItems;
+            mNewItems = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldItems.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewItems.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return equal(mOldItems.get(oldItemPosition).getId(), mNewItems.get(newItemPosition).getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return equal(mOldItems.get(oldItemPosition).getUrl(), mNewItems.get(newItemPosition).getUrl());
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
         }
     }
 
@@ -301,11 +781,11 @@ public class PhotoGalleryFragment extends VisibleFragment {
     }
 
     private class PhotoAdapter extends RecyclerView.Adapter<PhotoHolder> {
-        private List<GalleryItem> mItems;
+        private GalleryPagedList mItems;
 
         // The adapter stores the reference to a memory space, where the given items are
         // If the parent items change its location, the reference has to be updated, hence the setItems method further down
-        public PhotoAdapter(List<GalleryItem> items) {
+        public PhotoAdapter(GalleryPagedList items) {
             mItems = items;
         }
 
@@ -321,11 +801,23 @@ public class PhotoGalleryFragment extends VisibleFragment {
 
         @Override
         public void onBindViewHolder(PhotoHolder holder, int position) {
+            // Null while its page is being restored, the cell is bound again once it's back
             GalleryItem item = mItems.get(position);
-            Drawable placeholder = getResources().getDrawable(R.drawable.bill_up_close);
-            holder.bindDrawable(placeholder);
-            // Set the current holder as a target of the message
-            mThumbnailDownloader.queueThumbnail(holder, item.getUrl());
+            // The photos seen before show their color, it's close enough to the thumbnail for the grid not to look empty
+            if (item != null && item.hasPreviewColor()) {
+                holder.bindDrawable(new ColorDrawable(item.getPreviewColor()));
+            } else {
+                holder.bindDrawable(mPlaceholderState.newDrawable());
+            }
+            // Set the current holder as a target of the download, the downloader picks the size of the photo
+            // and ranks it by the position
+            mThumbnailDownloader.queueThumbnail(holder, item, position);
+        }
+
+        // Off the screen, its thumbnail may go like any other
+        @Override
+        public void onViewRecycled(PhotoHolder holder) {
+            mThumbnailDownloader.release(holder);
         }
 
         @Override
@@ -333,7 +825,7 @@ public class PhotoGalleryFragment extends VisibleFragment {
             return mItems.size();
         }
 
-        public void setItems(List<GalleryItem> items) {
+        public void setItems(GalleryPagedList items) {
             mItems = items;
         }
     }
@@ -0,0 +1,64 @@
+package cz.zdrubecky.photogallery;
+
+// Decides how long to wait before the next poll, without any Android in it so it can be tested with a made-up clock
+// Every poll finding nothing new doubles the interval (up to a limit), the first one finding something starts over
+// The phone running on its battery waits twice as long on top of that
+public class PollBackoff {
+    private static final int BATTERY_FACTOR = 2;
+
+    private final Clock mClock;
+    private final long mBaseInterval;
+    private final long mMaxInterval;
+    // The polls in a row which found nothing
+    private int mEmptyPolls;
+
+    // The time the schedule is counted from, the real one is SystemClock.elapsedRealtime()
+    public interface Clock {
+        long now();
+    }
+
+    public PollBackoff(Clock clock, long baseInterval, long maxInterval) {
+        mClock = clock;
+        mBaseInterval = baseInterval;
+        mMaxInterval = maxInterval;
+    }
+
+    public int getEmptyPolls() {
+        return mEmptyPolls;
+    }
+
+    // The service doesn't live between the polls, so the count is kept somewhere else and restored
+    public void setEmptyPolls(int emptyPolls) {
+        mEmptyPolls = Math.max(0, emptyPolls);
+    }
+
+    public void onPollFinished(int newCount) {
+        if (newCount > 0) {
+            mEmptyPolls = 0;
+        } else if (getBackoffInterval() < mMaxInterval) {
+            // Not counting any further once the limit is reached, the shift would overflow sooner or later
+            mEmptyPolls++;
+        }
+    }
+
+    public long getInterval(boolean isCharging) {
+        long interval = getBackoffInterval();
+
+        return isCharging ? interval : interval * BATTERY_FACTOR;
+    }
+
+    // In the clock's time
+    public long getNextPollTime(boolean isCharging) {
+        return mClock.now() + getInterval(isCharging);
+    }
+
+    private long getBackoffInterval() {
+        long interval = mBaseInterval;
+
+        for (int i = 0; i < mEmptyPolls && interval < mMaxInterval; i++) {
+            interval *= 2;
+        }
+
+        return Math.min(interval, mMaxInterval);
+    }
+}
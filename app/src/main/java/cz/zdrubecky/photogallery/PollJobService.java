@@ -0,0 +1,63 @@
+package cz.zdrubecky.photogallery;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.AsyncTask;
+import android.os.Build;
+
+// The Lollipop way of polling, the system only starts the job once there's a connection
+// The job is run on the main thread, so the poll itself goes to a task
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class PollJobService extends JobService {
+    private PollTask mCurrentTask;
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        mCurrentTask = new PollTask(params);
+        // Warming the thumbnails may take a while, the gallery's own tasks must not queue up behind it
+        mCurrentTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+
+        // Still working, jobFinished() comes later
+        return true;
+    }
+
+    // The connection is gone or the system needs the resources back
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (mCurrentTask != null) {
+            mCurrentTask.cancel(true);
+        }
+
+        // The job is a one-shot one, so instead of letting the system retry it, the next poll is planned as usual
+        // It counts as a poll which found nothing, a job the system keeps stopping backs off like any other
+        PollScheduler.onPollFinished(this, 0);
+
+        return false;
+    }
+
+    private class PollTask extends AsyncTask<Void, Void, Integer> {
+        private JobParameters mParams;
+
+        public PollTask(JobParameters params) {
+            mParams = params;
+        }
+
+        @Override
+        protected Integer doInBackground(Void... voids) {
+            long start = Metrics.start();
+
+            try {
+                return PollService.poll(PollJobService.this);
+            } finally {
+                Metrics.stop(Metrics.Stage.POLL, start);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Integer newCount) {
+            PollScheduler.onPollFinished(PollJobService.this, newCount);
+            jobFinished(mParams, false);
+        }
+    }
+}
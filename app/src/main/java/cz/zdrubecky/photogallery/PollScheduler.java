@@ -0,0 +1,142 @@
+package cz.zdrubecky.photogallery;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+// Plans the polls one at a time, each of them is scheduled when the previous one is done, so the interval can change in between
+// Lollipop and later have the JobScheduler, which also waits for a network connection by itself
+// The older versions get a single alarm, which doesn't wake the phone up either, the poll just waits for its next wakeup
+public class PollScheduler {
+    private static final String TAG = "PollScheduler";
+    private static final int JOB_ID = 1;
+    // A minute after something new has appeared, up to an hour when nothing is happening
+    private static final long BASE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final long MAX_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    private static final PollBackoff.Clock ELAPSED_REALTIME = new PollBackoff.Clock() {
+        @Override
+        public long now() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    public static void setPollingOn(Context context, boolean isOn) {
+        QueryPreferences.setAlarmOn(context, isOn);
+
+        if (isOn) {
+            // Turning the polling on counts as a fresh start
+            QueryPreferences.setEmptyPolls(context, 0);
+            scheduleNextPoll(context);
+        } else {
+            cancel(context);
+        }
+    }
+
+    public static boolean isPollingOn(Context context) {
+        return QueryPreferences.isAlarmOn(context);
+    }
+
+    // Called by both the service and the job when a poll is done, the count is -1 if it couldn't even try
+    public static void onPollFinished(Context context, int newCount) {
+        if (newCount >= 0) {
+            PollBackoff backoff = getBackoff(context);
+            backoff.onPollFinished(newCount);
+            QueryPreferences.setEmptyPolls(context, backoff.getEmptyPolls());
+        }
+
+        scheduleNextPoll(context);
+    }
+
+    // Replaces whatever poll was planned before
+    public static void scheduleNextPoll(Context context) {
+        if (!isPollingOn(context)) {
+            return;
+        }
+
+        PollBackoff backoff = getBackoff(context);
+        boolean isCharging = isCharging(context);
+
+        Log.i(TAG, "Next poll in " + backoff.getInterval(isCharging) / 1000 + " s");
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // An update from the version with the repeating alarm leaves the alarm behind, it would poll on top of the jobs
+            cancelAlarm(context);
+            scheduleJob(context, backoff.getInterval(isCharging));
+        } else {
+            AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            // ELAPSED_REALTIME is relative to the last boot (including sleeps), without the _WAKEUP it waits for the phone to wake up
+            alarmManager.set(AlarmManager.ELAPSED_REALTIME, backoff.getNextPollTime(isCharging), getServiceIntent(context));
+        }
+    }
+
+    private static void cancel(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+            scheduler.cancel(JOB_ID);
+        }
+
+        // On every version, a Lollipop phone may still have the repeating alarm of an older version of the app
+        cancelAlarm(context);
+    }
+
+    // The alarm and its intent, if there's any
+    private static void cancelAlarm(Context context) {
+        PendingIntent pi = PendingIntent.getService(context, 0, PollService.newIntent(context), PendingIntent.FLAG_NO_CREATE);
+
+        if (pi == null) {
+            return;
+        }
+
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.cancel(pi);
+        pi.cancel();
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJob(Context context, long delay) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+
+        JobInfo jobInfo = new JobInfo.Builder(JOB_ID, new ComponentName(context, PollJobService.class))
+                // No point in waking up without a connection, the job waits for one
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setMinimumLatency(delay)
+                // Survives a reboot, even before the startup receiver gets to it
+                .setPersisted(true)
+                .build();
+
+        scheduler.schedule(jobInfo);
+    }
+
+    private static PendingIntent getServiceIntent(Context context) {
+        // This intent wakes up a poll service with the previous intent
+        // The OS acts as me when sending the intent i
+        return PendingIntent.getService(context, 0, PollService.newIntent(context), 0);
+    }
+
+    private static PollBackoff getBackoff(Context context) {
+        PollBackoff backoff = new PollBackoff(ELAPSED_REALTIME, BASE_INTERVAL, MAX_INTERVAL);
+        backoff.setEmptyPolls(QueryPreferences.getEmptyPolls(context));
+
+        return backoff;
+    }
+
+    // The battery broadcast is sticky, so registering a null receiver just returns the last one
+    private static boolean isCharging(Context context) {
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+}
@@ -1,7 +1,6 @@
 package cz.zdrubecky.photogallery;
 
 import android.app.Activity;
-import android.app.AlarmManager;
 import android.app.IntentService;
 import android.app.Notification;
 import android.app.PendingIntent;
@@ -9,12 +8,14 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
 import android.net.ConnectivityManager;
-import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.NotificationManagerCompat;
+import android.support.v4.net.ConnectivityManagerCompat;
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 
 // Service inherits from Context
@@ -40,10 +41,14 @@ public class PollService extends IntentService {
     public static final String REQUEST_CODE = "REQUEST_CODE";
     public static final String NOTIFICATION = "NOTIFICATION";
 
-    // 60 seconds polling interval for an alarm
-    private static final int POLL_INTERVAL = 60;
-    // Pre-kitkat constant
-//    private static final long POLL_INTERVAL = AlarmManager.INTERVAL_FIFTEEN_MINUTES;
+    // The newest photos are all the poll needs, not a whole page of a hundred
+    private static final int POLL_PAGE_SIZE = 10;
+    private static final String SEEN_IDS_FILE = "seen_photo_ids";
+    // Way more than a few polls' worth, at 8 bytes per id
+    private static final int SEEN_IDS_CAPACITY = 512;
+    // Seven rows of three, what the gallery shows right after it opens
+    private static final int WARM_THUMBNAIL_COUNT = 21;
+    private static final long WARM_BYTE_BUDGET = 1024 * 1024;
 
     // Every consumer should use this method, it's clean
     public static Intent newIntent(Context context) {
@@ -54,100 +59,134 @@ public class PollService extends IntentService {
         super(TAG);
     }
 
-    public static void setServiceAlarm(Context context, boolean isOn) {
-        Intent i = PollService.newIntent(context);
-        // This intent wakes up a poll service with the previous intent
-        // The OS acts as me when sending the intent i
-        PendingIntent pi = PendingIntent.getService(context, 0, i, 0);
-
-        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-
-        if (isOn) {
-            // Time basis (after some time in this case), when to start, how often, what with
-            // It batches the alarm with others so that the wakeup time for cpu is minimal
-            // setRepeating(…) is used in API 19 and later, cause it erases the differences in exact timing
-            // ELAPSED_REALTIME is relative to the last boot (including sleeps)
-            // to force the wakeup, use different constant
-            alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME, SystemClock.elapsedRealtime(), POLL_INTERVAL, pi);
-        } else {
-            alarmManager.cancel(pi);
-            pi.cancel();
-        }
-
-        QueryPreferences.setAlarmOn(context, isOn);
-    }
-
-    // Check if the intent is created using the flag
-    public static boolean isServiceAlarmOn(Context context) {
-        Intent i = PollService.newIntent(context);
-        PendingIntent pi = PendingIntent.getService(context, 0, i, PendingIntent.FLAG_NO_CREATE);
-
-        return pi != null;
-    }
-
     // Intent is called command here in service
     // The commands are served in a background thread
     // Called whenever there are new images available
+    // PollScheduler starts the service on the versions without the JobScheduler, then it plans the next poll
     @Override
     protected void onHandleIntent(@Nullable Intent intent) {
+        // The alarm doesn't care about the connection, so the poll is skipped without counting it in the backoff
         if (!isNetworkAvailableAndConnected()) {
+            PollScheduler.onPollFinished(this, -1);
             return;
         }
 
-        String query = QueryPreferences.getStoredQuery(this);
-        String lastResultId = QueryPreferences.getLastResultId(this);
-        int currentPage = QueryPreferences.getCurrentPage(this);
+        long start = Metrics.start();
+        int newCount = poll(this);
+        Metrics.stop(Metrics.Stage.POLL, start);
+
+        PollScheduler.onPollFinished(this, newCount);
+    }
+
+    // The poll itself, shared with PollJobService, returns the number of new photos
+    // It runs in the background, the network is expected to be there
+    public static int poll(Context context) {
+        String query = QueryPreferences.getStoredQuery(context);
         List<GalleryItem> items;
 
+        // Always the first page and only a few items of it, that's where the new photos show up
+        FlickrFetchr fetchr = new FlickrFetchr(context);
+
         if (query == null) {
-            items = new FlickrFetchr().fetchRecentPhotos(currentPage);
+            items = fetchr.fetchRecentPhotos(1, POLL_PAGE_SIZE);
         } else {
-            items = new FlickrFetchr().searchPhotos(query, currentPage);
+            items = fetchr.searchPhotos(query, 1, POLL_PAGE_SIZE);
         }
 
+        Metrics.increment(Metrics.Counter.POLLS);
+
+        // A failure or no photos at all, either way nothing new
         if (items.size() == 0) {
-            return;
+            return 0;
         }
 
-        String resultId = items.get(0).getId();
-        if (resultId.equals(lastResultId)) {
-            Log.i(TAG, "Got an old result: " + resultId);
+        SeenPhotoIds seenIds = SeenPhotoIds.load(new File(context.getFilesDir(), SEEN_IDS_FILE), SEEN_IDS_CAPACITY);
+        int newCount;
+
+        if (!seenIds.belongsTo(query) || seenIds.isEmpty()) {
+            // Nothing to compare with yet, what's there now is the baseline
+            Log.i(TAG, "Starting over with the seen photos");
+            seenIds.reset(query);
+            seenIds.addAll(items);
+            newCount = 0;
         } else {
-            Log.i(TAG, "Got a new result: " + resultId);
+            // Counted one by one, so a photo moving up the list isn't mistaken for a new one
+            newCount = seenIds.addAll(items);
+        }
+
+        try {
+            seenIds.save();
+        } catch (IOException ioe) {
+            Log.e(TAG, "Failed to save the seen photos.", ioe);
+        }
+
+        if (newCount == 0) {
+            Log.i(TAG, "Got no new results");
+        } else {
+            Log.i(TAG, "Got " + newCount + " new results");
+            Metrics.add(Metrics.Counter.POLLED_NEW_PHOTOS, newCount);
+
+            if (QueryPreferences.isWarmingOn(context) && isNetworkUnmetered(context)) {
+                warmFirstScreen(context, query);
+            }
 
-            Resources resources = getResources();
-            Intent i = PhotoGalleryActivity.newIntent(this);
-            PendingIntent pi = PendingIntent.getActivity(this, 0, i, 0);
+            Resources resources = context.getResources();
+            Intent i = PhotoGalleryActivity.newIntent(context);
+            PendingIntent pi = PendingIntent.getActivity(context, 0, i, 0);
+
+            // Every photo of the poll being new means there are probably more of them beyond it
+            String text = newCount == items.size()
+                    ? resources.getString(R.string.new_pictures_text_at_least, newCount)
+                    : resources.getQuantityString(R.plurals.new_pictures_text, newCount, newCount);
 
             // The content methods take strings, so we must get them by their ids
             // It's easier to use stock image
             // AutoCancel removes the notification after it's been clicked
             // pending intent is fired after the click
-            Notification notification = new NotificationCompat.Builder(this)
+            Notification notification = new NotificationCompat.Builder(context)
                     .setTicker(resources.getString(R.string.new_pictures_title))
                     .setSmallIcon(android.R.drawable.ic_menu_report_image)
                     .setContentTitle(resources.getString(R.string.new_pictures_title))
-                    .setContentText(resources.getString(R.string.new_pictures_title))
+                    .setContentText(text)
+                    .setNumber(newCount)
                     .setContentIntent(pi)
                     .setAutoCancel(true)
                     .build();
 
 
             // The code id has to be unique, which it is for now
-            showBackgroundNotification(0, notification);
+            showBackgroundNotification(context, 0, notification);
         }
 
-        QueryPreferences.setLastResultId(this, resultId);
+        return newCount;
+    }
+
+    // The whole first page goes to the gallery database, its first thumbnails to the disk cache
+    // Tapping the notification then shows the grid without waiting for anything
+    private static void warmFirstScreen(Context context, String query) {
+        FlickrFetchr fetchr = new FlickrFetchr(context);
+        List<GalleryItem> items = query == null ? fetchr.fetchRecentPhotos(1) : fetchr.searchPhotos(query, 1);
+
+        int warmed = new ThumbnailWarmer(context, WARM_BYTE_BUDGET).warm(items, WARM_THUMBNAIL_COUNT);
+        Log.i(TAG, "Warmed " + warmed + " thumbnails");
+        Metrics.add(Metrics.Counter.WARMED_THUMBNAILS, warmed);
     }
 
-    private void showBackgroundNotification(int requestCode, Notification notification) {
+    private static void showBackgroundNotification(Context context, int requestCode, Notification notification) {
         Intent i = new Intent(ACTION_SHOW_NOTIFICATION);
         i.putExtra(REQUEST_CODE, requestCode);
         i.putExtra(NOTIFICATION, notification);
 
         // Notify all the interested components using a broadcast intent and a private permission definition, which limits the receivers
         // The broadcast is not simple, but ordered - wakes up the receivers one after the other
-        sendOrderedBroadcast(i, PERM_PRIVATE, null, null, Activity.RESULT_OK, null, null);
+        context.sendOrderedBroadcast(i, PERM_PRIVATE, null, null, Activity.RESULT_OK, null, null);
+    }
+
+    // Someone else pays for the mobile data, the thumbnails can wait until the gallery is opened
+    private static boolean isNetworkUnmetered(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        return !ConnectivityManagerCompat.isActiveNetworkMetered(cm);
     }
 
     private boolean isNetworkAvailableAndConnected() {
@@ -5,9 +5,12 @@ import android.preference.PreferenceManager;
 
 public class QueryPreferences {
     private static final String PREF_SEARCH_QUERY = "searchQuery";
-    private static final String PREF_LAST_RESULT_ID = "lastResultId";
     private static final String PREF_IS_ALARM_ON = "isAlarmOn";
-    private static final String PREF_CURRENT_PAGE = "currentPage";
+    private static final String PREF_EMPTY_POLLS = "emptyPolls";
+    private static final String PREF_IS_WARMING_ON = "isWarmingOn";
+    private static final String PREF_IS_METRICS_ON = "isMetricsOn";
+    private static final String PREF_LAST_PAGE = "lastPage";
+    private static final String PREF_LAST_POSITION = "lastPosition";
 
     public static String getStoredQuery(Context context) {
         // General way of getting preferences, otherwise a specific context
@@ -15,16 +18,31 @@ public class QueryPreferences {
         return PreferenceManager.getDefaultSharedPreferences(context).getString(PREF_SEARCH_QUERY, null);
     }
 
-    public static String getLastResultId(Context context) {
-        return PreferenceManager.getDefaultSharedPreferences(context).getString(PREF_LAST_RESULT_ID, null);
+    public static boolean isAlarmOn(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(PREF_IS_ALARM_ON, false);
     }
 
-    public static int getCurrentPage(Context context) {
-        return PreferenceManager.getDefaultSharedPreferences(context).getInt(PREF_CURRENT_PAGE, 1);
+    public static int getEmptyPolls(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getInt(PREF_EMPTY_POLLS, 0);
     }
 
-    public static boolean isAlarmOn(Context context) {
-        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(PREF_IS_ALARM_ON, false);
+    public static boolean isWarmingOn(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(PREF_IS_WARMING_ON, false);
+    }
+
+    // The release builds don't measure anything unless this is on
+    public static boolean isMetricsOn(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(PREF_IS_METRICS_ON, false);
+    }
+
+    // How many pages of the stored query the user has scrolled through, so the gallery can load them all again on the next start
+    public static int getLastPage(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getInt(PREF_LAST_PAGE, 1);
+    }
+
+    // The first visible position in those pages
+    public static int getLastPosition(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getInt(PREF_LAST_POSITION, 0);
     }
 
     public static void setStoredQuery(Context context, String query) {
@@ -36,24 +54,39 @@ public class QueryPreferences {
                 .apply();
     }
 
-    public static void setLastResultId(Context context, String lastResultId) {
+    public static void setAlarmOn(Context context, boolean isOn) {
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .edit()
+                .putBoolean(PREF_IS_ALARM_ON, isOn)
+                .apply();
+    }
+
+    public static void setEmptyPolls(Context context, int emptyPolls) {
         PreferenceManager.getDefaultSharedPreferences(context)
                 .edit()
-                .putString(PREF_LAST_RESULT_ID, lastResultId)
+                .putInt(PREF_EMPTY_POLLS, emptyPolls)
                 .apply();
     }
 
-    public static void setCurrentPage(Context context, int currentPage) {
+    public static void setWarmingOn(Context context, boolean isOn) {
         PreferenceManager.getDefaultSharedPreferences(context)
                 .edit()
-                .putInt(PREF_CURRENT_PAGE, currentPage)
+                .putBoolean(PREF_IS_WARMING_ON, isOn)
                 .apply();
     }
 
-    public static void setAlarmOn(Context context, boolean isOn) {
+    public static void setMetricsOn(Context context, boolean isOn) {
         PreferenceManager.getDefaultSharedPreferences(context)
                 .edit()
-                .putBoolean(PREF_IS_ALARM_ON, isOn)
+                .putBoolean(PREF_IS_METRICS_ON, isOn)
+                .apply();
+    }
+
+    public static void setLastPosition(Context context, int page, int position) {
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .edit()
+                .putInt(PREF_LAST_PAGE, page)
+                .putInt(PREF_LAST_POSITION, position)
                 .apply();
     }
 }
@@ -0,0 +1,121 @@
+package cz.zdrubecky.photogallery;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Handler;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Fetches the first page of a search while the user is still typing it, so that submitting it is served from memory
+// The text has to settle for a moment before anything is fetched, and whatever was fetched for the older text is cancelled
+// Used from the main thread only, the fetching runs on the given executor
+// Nothing is written to the store, the page is only kept in memory until the query is submitted
+public class SearchPrefetcher {
+    // About the pause between two words, a fast typist doesn't trigger a fetch per letter
+    private static final long DEBOUNCE_MILLIS = 400;
+    // Anything shorter matches half of Flickr, it's hardly what the user is going to submit
+    private static final int MIN_QUERY_LENGTH = 3;
+
+    private final Context mContext;
+    private final ExecutorService mExecutor;
+    private final Handler mHandler = new Handler();
+    // Normalized, waiting for the text to settle or being fetched
+    private String mQuery;
+    private Future<List<GalleryItem>> mFuture;
+    private Cancellation mCancellation;
+
+    private final Runnable mStart = new Runnable() {
+        @Override
+        public void run() {
+            start();
+        }
+    };
+
+    public SearchPrefetcher(Context context, ExecutorService executor) {
+        mContext = context.getApplicationContext();
+        mExecutor = executor;
+    }
+
+    public void onQueryTextChange(String text) {
+        String query = SearchResultCache.normalize(text);
+
+        // Just another space, still the same search
+        if (query != null && query.equals(mQuery)) {
+            return;
+        }
+
+        cancel();
+
+        if (query != null && query.length() >= MIN_QUERY_LENGTH) {
+            mQuery = query;
+            mHandler.postDelayed(mStart, DEBOUNCE_MILLIS);
+        }
+    }
+
+    // The prefetch of the submitted query, it's the caller's to wait for from now on, the text changing won't cancel it anymore
+    // Null if the query wasn't being prefetched, a prefetch of any other one is cancelled
+    public Future<List<GalleryItem>> take(String text) {
+        String query = SearchResultCache.normalize(text);
+        Future<List<GalleryItem>> future = null;
+
+        if (mFuture != null && query != null && query.equals(mQuery)) {
+            future = mFuture;
+            mFuture = null;
+            mCancellation = null;
+        }
+
+        cancel();
+
+        return future;
+    }
+
+    public void cancel() {
+        mHandler.removeCallbacks(mStart);
+        mQuery = null;
+
+        if (mFuture == null) {
+            return;
+        }
+
+        // Still waiting for a thread, it never starts
+        mFuture.cancel(false);
+
+        // Closing the connection may block, it's done off the main thread
+        final Cancellation cancellation = mCancellation;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                cancellation.cancel();
+            }
+        });
+
+        mFuture = null;
+        mCancellation = null;
+    }
+
+    private void start() {
+        final String query = mQuery;
+        final Cancellation cancellation = new Cancellation();
+
+        mCancellation = cancellation;
+        mFuture = mExecutor.submit(new Callable<List<GalleryItem>>() {
+            @Override
+            public List<GalleryItem> call() throws Exception {
+                // Opens the HTTP cache and the database the first time, not on the main thread
+                FlickrFetchr fetchr = new FlickrFetchr(mContext);
+                List<GalleryItem> cached = fetchr.getCachedSearch(query, 1);
+
+                if (cached != null) {
+                    return cached;
+                }
+
+                Metrics.increment(Metrics.Counter.SEARCH_PREFETCHES);
+
+                return fetchr.prefetchSearch(query, 1, cancellation);
+            }
+        });
+    }
+}
@@ -0,0 +1,93 @@
+package cz.zdrubecky.photogallery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// The pages of the recent searches, in memory, so running a search again (or submitting one prefetched while typing) skips the network
+// The queries are normalized first, Flickr's text search doesn't care about the case or the extra spaces and neither does the cache
+// The least recently used pages go once there are too many, and a page too old is a miss, Flickr has moved on by then
+// Everything is guarded by the cache itself, the fetching threads and the prefetching share it
+public class SearchResultCache {
+    private final int mMaxPages;
+    private final long mMaxAge;
+    // Access ordered, the eldest entry goes first
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > mMaxPages;
+        }
+    };
+
+    private static class Entry {
+        private final List<GalleryItem> mItems;
+        private final long mFetchedAt;
+
+        public Entry(List<GalleryItem> items, long fetchedAt) {
+            mItems = items;
+            mFetchedAt = fetchedAt;
+        }
+    }
+
+    public SearchResultCache(int maxPages, long maxAge) {
+        mMaxPages = maxPages;
+        mMaxAge = maxAge;
+    }
+
+    // Trimmed, lower case and single spaced, null for a query with nothing in it
+    public static String normalize(String query) {
+        if (query == null) {
+            return null;
+        }
+
+        String normalized = query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.US);
+
+        return normalized.isEmpty() ? null : normalized;
+    }
+
+    // Null unless the page is here and fresh, the list can't be changed
+    public synchronized List<GalleryItem> get(String query, int page, long now) {
+        String key = keyFor(query, page);
+
+        if (key == null) {
+            return null;
+        }
+
+        Entry entry = mEntries.get(key);
+
+        if (entry == null) {
+            return null;
+        }
+
+        if (now - entry.mFetchedAt > mMaxAge) {
+            mEntries.remove(key);
+            return null;
+        }
+
+        return entry.mItems;
+    }
+
+    // An empty page is most likely a failed request, it isn't kept
+    public synchronized void put(String query, int page, List<GalleryItem> items, long now) {
+        String key = keyFor(query, page);
+
+        if (key == null || items.isEmpty()) {
+            return;
+        }
+
+        mEntries.put(key, new Entry(Collections.unmodifiableList(new ArrayList<>(items)), now));
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    private static String keyFor(String query, int page) {
+        String normalized = normalize(query);
+
+        return normalized == null ? null : page + ":" + normalized;
+    }
+}
@@ -0,0 +1,167 @@
+package cz.zdrubecky.photogallery;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+// The photos the poll has already seen, so it can tell exactly how many of the fetched ones are new
+// The ids are kept as a sorted array of longs (Flickr ids are numbers), 4 KB for the whole set and a binary search per lookup
+// Flickr hands out the ids in an ascending order, so when the set is full, the smallest ones are the oldest and they go first
+// The set belongs to a single query, a different one starts it over
+public class SeenPhotoIds {
+    private final File mFile;
+    private final int mCapacity;
+    private String mQuery;
+    private long[] mIds = new long[0];
+
+    private SeenPhotoIds(File file, int capacity) {
+        mFile = file;
+        mCapacity = capacity;
+    }
+
+    // A missing or damaged file is the same as an empty set, the next poll just takes what it gets as the baseline
+    public static SeenPhotoIds load(File file, int capacity) {
+        SeenPhotoIds seenIds = new SeenPhotoIds(file, capacity);
+
+        if (!file.exists()) {
+            return seenIds;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            try {
+                String query = in.readBoolean() ? in.readUTF() : null;
+                int count = in.readInt();
+
+                // A damaged count would fail the allocation rather than the read, it can't be more than the file holds
+                if (count < 0 || count > file.length() / 8) {
+                    throw new IOException("Damaged " + file + ", " + count + " ids");
+                }
+
+                long[] ids = new long[count];
+
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = in.readLong();
+                }
+
+                seenIds.mQuery = query;
+                seenIds.mIds = ids;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            file.delete();
+        }
+
+        return seenIds;
+    }
+
+    public boolean belongsTo(String query) {
+        return query == null ? mQuery == null : query.equals(mQuery);
+    }
+
+    public boolean isEmpty() {
+        return mIds.length == 0;
+    }
+
+    public boolean contains(long id) {
+        return Arrays.binarySearch(mIds, id) >= 0;
+    }
+
+    // Counts the photos which aren't in the set yet and adds them, the ids Flickr may some day send in another format are skipped
+    public int addAll(List<GalleryItem> items) {
+        long[] newIds = new long[items.size()];
+        int count = 0;
+
+        for (GalleryItem item : items) {
+            long id = parseId(item.getId());
+
+            if (id != -1 && !contains(id)) {
+                newIds[count++] = id;
+            }
+        }
+
+        // The same photo twice in one response is still one new photo
+        Arrays.sort(newIds, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || newIds[unique - 1] != newIds[i]) {
+                newIds[unique++] = newIds[i];
+            }
+        }
+
+        if (unique == 0) {
+            return 0;
+        }
+
+        long[] merged = new long[mIds.length + unique];
+        System.arraycopy(mIds, 0, merged, 0, mIds.length);
+        System.arraycopy(newIds, 0, merged, mIds.length, unique);
+        Arrays.sort(merged);
+
+        // Keep the highest (the most recent) ids only
+        if (merged.length > mCapacity) {
+            merged = Arrays.copyOfRange(merged, merged.length - mCapacity, merged.length);
+        }
+
+        mIds = merged;
+
+        return unique;
+    }
+
+    // Forget everything, the set starts over for another query
+    public void reset(String query) {
+        mQuery = query;
+        mIds = new long[0];
+    }
+
+    public int size() {
+        return mIds.length;
+    }
+
+    // Written to a temporary file first, a crash in the middle leaves the old set in place
+    public void save() throws IOException {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+
+        try {
+            out.writeBoolean(mQuery != null);
+            if (mQuery != null) {
+                out.writeUTF(mQuery);
+            }
+
+            out.writeInt(mIds.length);
+            for (long id : mIds) {
+                out.writeLong(id);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(mFile)) {
+            tmp.delete();
+            throw new IOException("Failed to replace " + mFile);
+        }
+    }
+
+    // -1 for the ids which aren't numbers
+    static long parseId(String id) {
+        if (id == null) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+}
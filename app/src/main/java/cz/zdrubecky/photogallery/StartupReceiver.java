@@ -9,7 +9,7 @@ import android.content.Intent;
 public class StartupReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
-        boolean isOn = QueryPreferences.isAlarmOn(context);
-        PollService.setServiceAlarm(context, isOn);
+        // The alarms don't survive a reboot, the next poll has to be planned again
+        PollScheduler.scheduleNextPoll(context);
     }
 }
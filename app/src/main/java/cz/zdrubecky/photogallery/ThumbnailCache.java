@@ -0,0 +1,33 @@
+package cz.zdrubecky.photogallery;
+
+import android.graphics.Bitmap;
+
+// The decoded thumbnails in memory, keyed by the photo and its size rather than the url (see keyFor())
+// The LRU is sized in kilobytes, and whatever falls out of the second tier goes to the bitmap pool to be decoded into again
+// The tiers and the pinning are in TieredCache, this is only what makes them about bitmaps
+public class ThumbnailCache extends TieredCache<Bitmap> {
+    private final BitmapPool mBitmapPool;
+
+    public ThumbnailCache(int maxSizeKb, int maxSoftEntries, BitmapPool bitmapPool) {
+        super(maxSizeKb, maxSoftEntries);
+        mBitmapPool = bitmapPool;
+    }
+
+    // A photo's urls may change (another farm, another secret), the photo and the size don't
+    // The thumbnails without a photo (a url on its own) are keyed by the url
+    public static String keyFor(String photoId, char size) {
+        return photoId + "_" + size;
+    }
+
+    @Override
+    protected int sizeOf(Bitmap bitmap) {
+        // The cache size will be measured in kilobytes rather than number of items.
+        return BitmapPool.getSize(bitmap) / 1024;
+    }
+
+    @Override
+    protected void recycle(Bitmap bitmap) {
+        // Still there, the decoder can have it
+        mBitmapPool.put(bitmap);
+    }
+}
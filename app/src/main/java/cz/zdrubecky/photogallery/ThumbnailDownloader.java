@@ -1,35 +1,148 @@
 package cz.zdrubecky.photogallery;
 
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
-import android.os.Message;
+import android.os.Process;
 import android.util.Log;
-import android.util.LruCache;
 
+import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // use a generic argument to make this class more flexible (every time it's mentioned, don't forget to use it)
 // Message loop = thread + Looper, which runs around and takes care of the queue (it's his inbox)
 // every handler has one looper, but looper can serve multiple handlers
+// The downloads run on a small pool of workers so that one slow image doesn't block the rest, the looper only closes the abandoned connections
+// The workers take the waiting downloads closest to the screen first (see ViewportScheduler), not in the order they were asked for
 public class ThumbnailDownloader<T> extends HandlerThread {
     private static final String TAG = "ThumbnailDownloader";
-    // used to identify the message type (what)
-    private static final int MESSAGE_DOWNLOAD = 0;
+    private static final String DISK_CACHE_DIR = "thumbnails";
+    private static final long DISK_CACHE_SIZE = 20 * 1024 * 1024;
+    private static final int DEFAULT_POOL_SIZE = 4;
+    private static final int DEFAULT_MAX_REQUESTS_PER_HOST = 4;
+    // Idle workers die after this, the pool is empty when nobody is scrolling
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 30;
+    // The recently evicted thumbnails kept softly, about two screens of them
+    private static final int SOFT_CACHE_ENTRIES = 64;
+    // The preview color is averaged over this many pixels in either direction, it doesn't need more
+    private static final int PREVIEW_SAMPLES = 8;
+    // The colors decoded meanwhile are written together, a fling decodes a screenful within this
+    private static final long PREVIEW_FLUSH_DELAY_MILLIS = 500;
 
-    // One of Looper's handlers - handles download requests and processing them and belongs to the background thread
+    // One disk cache per process, two instances over the same directory would mess up its journal
+    private static DiskCache sDiskCache;
+
+    // One of Looper's handlers - it belongs to the background thread, which does whatever mustn't block the main one
     private Handler mRequestHandler;
-    // A thread-safe hashmap, pairing the target with url string
-    private ConcurrentMap<T, String> mRequestMap = new ConcurrentHashMap<>();
+    // A thread-safe hashmap, pairing the target with the thumbnail it wants (and keeps showing once it has it)
+    private ConcurrentMap<T, Thumbnail> mRequestMap = new ConcurrentHashMap<>();
     // This one is a reference to the main thread's handler
     private Handler mResponseHandler;
     // This listener implements the interface needed to be informed about image download
     private ThumbnailDownloadListener<T> mThumbnailDownloadListener;
-    // A memory cache where the bitmaps are gonna be stored
-    private LruCache<String, Bitmap> mCache;
+    // A memory cache where the bitmaps are gonna be stored, the ones on the screen are pinned in it
+    private ThumbnailCache mCache;
+    // The second level, it survives the process being killed
+    private DiskCache mDiskCache;
+    // Where the preview colors are kept, the store is only opened (on the looper) once there's something to write
+    private final Context mContext;
+    // The colors waiting to be written by the looper (by photo id), guarded by itself
+    // The workers only add to it, the database is never touched on the way from the network to the screen
+    private final Map<String, Integer> mPendingColors = new HashMap<>();
+    private final Runnable mFlushColors = new Runnable() {
+        @Override
+        public void run() {
+            flushPreviewColors();
+        }
+    };
+    // The workers doing the actual downloading and decoding, every task handed to them only wakes one up to poll the scheduler
+    private ThreadPoolExecutor mExecutor;
+    private final ViewportScheduler mScheduler = new ViewportScheduler();
+    private final Runnable mRunNext = new Runnable() {
+        @Override
+        public void run() {
+            Runnable task = mScheduler.poll();
+
+            if (task != null) {
+                task.run();
+            }
+        }
+    };
+    // Flickr serves the thumbnails from a few farm hosts, don't hammer any of them with the whole pool
+    private ConcurrentMap<String, Semaphore> mHostPermits = new ConcurrentHashMap<>();
+    private volatile int mMaxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+    // The bitmaps evicted from the memory cache, recycled by the decoder
+    private BitmapPool mBitmapPool;
+    // The size of the views the thumbnails end up in, zero means full resolution
+    private volatile int mTargetWidth;
+    private volatile int mTargetHeight;
+    // The urls being downloaded right now, guarded by itself
+    private final Map<String, InFlight<T>> mInFlight = new HashMap<>();
+    // The prefetches waiting in the scheduler, so they can be pulled out again when they're not needed anymore (by url)
+    // They're scheduled under the task itself, the requests under their target
+    private ConcurrentMap<String, DownloadTask> mPrefetchTasks = new ConcurrentHashMap<>();
+
+    // What a target asks for, the url to download and the key it's cached under
+    private static final class Thumbnail {
+        private final String mKey;
+        private final String mUrl;
+        // The photo it's a thumbnail of, null for a url on its own, it gets its preview color once the thumbnail is decoded
+        // Not a part of the identity, the same photo may come in another item after its page is restored
+        private final GalleryItem mItem;
+
+        private Thumbnail(String key, String url, GalleryItem item) {
+            mKey = key;
+            mUrl = url;
+            mItem = item;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Thumbnail)) {
+                return false;
+            }
+
+            Thumbnail other = (Thumbnail) o;
+            return mKey.equals(other.mKey) && mUrl.equals(other.mUrl);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mKey.hashCode() + mUrl.hashCode();
+        }
+    }
+
+    // A download in progress, the targets waiting for it and the way to stop it once none of them does
+    private static final class InFlight<T> {
+        private final List<T> mTargets = new ArrayList<>();
+        private final Cancellation mCancellation = new Cancellation();
+        // The prefetches are never cancelled, they're wanted whether somebody waits for them or not
+        private final boolean mIsPrefetch;
+
+        private InFlight(boolean isPrefetch) {
+            mIsPrefetch = isPrefetch;
+        }
+    }
 
     // The interface through which to communicate with the parent UI thread
     public interface ThumbnailDownloadListener<T> {
@@ -41,97 +154,790 @@ public class ThumbnailDownloader<T> extends HandlerThread {
         mThumbnailDownloadListener = listener;
     }
 
-    public ThumbnailDownloader(Handler responseHandler) {
+    public ThumbnailDownloader(Context context, Handler responseHandler) {
         super(TAG);
         // Save the given handler
         mResponseHandler = responseHandler;
+        mDiskCache = getDiskCache(context);
+        mContext = context.getApplicationContext();
 
         // Set the memory limit for the cache
         final int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
         final int cacheSize = maxMemory / 10;
-        mCache = new LruCache<String, Bitmap>(cacheSize) {
-            @Override
-            protected int sizeOf(String key, Bitmap bitmap) {
-                // The cache size will be measured in kilobytes rather than number of items.
-                return bitmap.getByteCount() / 1024;
+        // A quarter of the cache is enough to keep a steady supply of buffers while scrolling
+        mBitmapPool = new BitmapPool(cacheSize * 1024L / 4);
+        mCache = new ThumbnailCache(cacheSize, SOFT_CACHE_ENTRIES, mBitmapPool);
+
+        mExecutor = new ThreadPoolExecutor(DEFAULT_POOL_SIZE, DEFAULT_POOL_SIZE,
+                WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // The number of images being downloaded at once
+    public void setPoolSize(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("The pool needs at least one worker");
+        }
+
+        // Keep core <= max at every step, the executor checks it
+        if (poolSize > mExecutor.getMaximumPoolSize()) {
+            mExecutor.setMaximumPoolSize(poolSize);
+            mExecutor.setCorePoolSize(poolSize);
+        } else {
+            mExecutor.setCorePoolSize(poolSize);
+            mExecutor.setMaximumPoolSize(poolSize);
+        }
+    }
+
+    public int getPoolSize() {
+        return mExecutor.getMaximumPoolSize();
+    }
+
+    // The thumbnails are scaled down while decoding to cover at least this size
+    public void setTargetSize(int width, int height) {
+        mTargetWidth = width;
+        mTargetHeight = height;
+    }
+
+    // Only applies to the hosts seen from now on
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        if (maxRequestsPerHost < 1) {
+            throw new IllegalArgumentException("At least one request per host has to be allowed");
+        }
+
+        mMaxRequestsPerHost = maxRequestsPerHost;
+        mHostPermits.clear();
+    }
+
+    // Opening the cache reads its journal, but it's small and it happens only once per process
+    public static synchronized DiskCache getDiskCache(Context context) {
+        if (sDiskCache == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(), DISK_CACHE_DIR);
+
+            try {
+                sDiskCache = DiskCache.open(directory, DISK_CACHE_SIZE);
+            } catch (IOException ioe) {
+                // Just go without it, the network is still there
+                Log.e(TAG, "Failed to open the disk cache.", ioe);
             }
-        };
+        }
+
+        return sDiskCache;
     }
 
     @Override
     protected void onLooperPrepared() {
-        // Init the handler right before it visits the loop and define what it will do with the downloaded messages
-        mRequestHandler = new Handler() {
-            @Override
-            public void handleMessage(Message msg) {
-                if (msg.what == MESSAGE_DOWNLOAD) {
-                    T target = (T) msg.obj;
-                    Log.v(TAG, "Got a request for URL: " + mRequestMap.get(target));
-                    handleRequest(target);
-                }
-            }
-        };
+        // Init the handler right before it visits the loop, it only runs what's posted to it
+        mRequestHandler = new Handler();
     }
 
+    // Call it on every scroll, the downloads still waiting are ranked by their distance from these positions
+    public void setViewport(int firstVisible, int lastVisible) {
+        mScheduler.setViewport(firstVisible, lastVisible);
+    }
+
+    // The hits, misses and evictions are counted there
+    public ThumbnailCache getCache() {
+        return mCache;
+    }
+
+    // A url without a photo, it's cached under the url itself
     public void queueThumbnail(T target, String url) {
-        Log.v(TAG, "Got a URL: " + url);
+        queueThumbnail(target, url == null ? null : new Thumbnail(url, url, null), ViewportScheduler.NO_POSITION);
+    }
 
-        if (url == null ) {
-            mRequestMap.remove(target);
+    // The position is where the target is, the closer to the screen, the sooner it's downloaded
+    private void queueThumbnail(T target, Thumbnail thumbnail, int position) {
+        // Whatever the target showed is replaced by the placeholder now
+        mCache.unpin(target);
+
+        Thumbnail previous;
+
+        if (thumbnail == null) {
+            previous = mRequestMap.remove(target);
+            mScheduler.remove(target);
         } else {
             // Pair the target and its url to get it later (it has to be like this to keep track of the most recent url due to views recycling)
-            mRequestMap.put(target, url);
-            // Using obtainMessage we can reuse messages via their pool
-            // The message is attached to the handler it's been called on
-            // The target (message object) is a view holder in our case and serves as an identifier
-            mRequestHandler.obtainMessage(MESSAGE_DOWNLOAD, target).sendToTarget();
+            previous = mRequestMap.put(target, thumbnail);
+            // The target (a view holder in our case) serves as the key, a recycled one replaces its old request in the scheduler
+            submit(target, new DownloadTask(target, null), position);
+        }
+
+        // The target has moved on, its old download may not be wanted by anyone anymore
+        if (previous != null && !previous.equals(thumbnail)) {
+            abandon(target, previous.mUrl);
         }
     }
 
-    // Remove the invalid messages in case of a rotated screen
+    // Null forgets whatever the target was waiting for
+    public void queueThumbnail(T target, GalleryItem item, int position) {
+        queueThumbnail(target, item == null ? null : getThumbnail(item), position);
+    }
+
+    // The target is gone (recycled, not showing anything), so is its request and its pin
+    public void release(T target) {
+        queueThumbnail(target, (Thumbnail) null, ViewportScheduler.NO_POSITION);
+    }
+
+    // Warm up the caches for a thumbnail that is going to be needed soon
+    // The position is off the screen, so it waits behind the visible cells, but not behind the ones the user has scrolled past
+    public void prefetchThumbnail(GalleryItem item, int position) {
+        Thumbnail thumbnail = getThumbnail(item);
+
+        if (thumbnail == null || mCache.contains(thumbnail.mKey) || mPrefetchTasks.containsKey(thumbnail.mUrl)) {
+            return;
+        }
+
+        DownloadTask task = new DownloadTask(null, thumbnail);
+        if (mPrefetchTasks.putIfAbsent(thumbnail.mUrl, task) == null) {
+            submit(task, task, position);
+        }
+    }
+
+    // Null if the photo has no url at all
+    private Thumbnail getThumbnail(GalleryItem item) {
+        char size = item.getSizeFor(mTargetWidth, mTargetHeight);
+        String url = item.getUrl(size);
+
+        if (url == null) {
+            return null;
+        }
+
+        return new Thumbnail(item.getId() == null ? url : ThumbnailCache.keyFor(item.getId(), size), url, item);
+    }
+
+    private void submit(Object key, DownloadTask task, int position) {
+        mScheduler.schedule(key, task, position);
+        // A worker polls for whichever task is the most urgent by the time it's free
+        mExecutor.execute(mRunNext);
+        // The size takes the scheduler's lock, not worth it unless somebody is measuring
+        if (Metrics.isEnabled()) {
+            Metrics.setGauge(Metrics.Gauge.DOWNLOAD_QUEUE_DEPTH, mScheduler.size());
+        }
+    }
+
+    // Drop the prefetches which haven't started yet (the running ones are left to finish)
+    public void cancelPrefetches() {
+        mScheduler.removeAll(mPrefetchTasks.values());
+        mPrefetchTasks.clear();
+    }
+
+    // Forget the requests in case of a rotated screen
     public void clearQueue() {
-        mRequestHandler.removeMessages(MESSAGE_DOWNLOAD);
+        // None of the targets is on the screen anymore
+        mRequestMap.clear();
+        mCache.unpinAll();
+        // The ones already handed to the pool are just as invalid
+        mScheduler.clear();
+        mExecutor.getQueue().clear();
+        mPrefetchTasks.clear();
+
+        // And so are the downloads running for them, the prefetches still fill the caches for the new view
+        List<InFlight<T>> cancelled = new ArrayList<>();
+
+        synchronized (mInFlight) {
+            Iterator<InFlight<T>> iterator = mInFlight.values().iterator();
+
+            while (iterator.hasNext()) {
+                InFlight<T> inFlight = iterator.next();
+                inFlight.mTargets.clear();
+
+                if (!inFlight.mIsPrefetch) {
+                    iterator.remove();
+                    cancelled.add(inFlight);
+                }
+            }
+        }
+
+        for (InFlight<T> inFlight : cancelled) {
+            cancel(inFlight);
+        }
     }
 
-    // The message has been pulled out of the queue and handled here
-    private void handleRequest(final T target) {
-        try {
-            final String url = mRequestMap.get(target);
+    // The target doesn't wait for the url anymore, and if nobody else does, the download stops where it is
+    private void abandon(T target, String url) {
+        InFlight<T> inFlight;
+
+        synchronized (mInFlight) {
+            inFlight = mInFlight.get(url);
+
+            if (inFlight == null || !inFlight.mTargets.remove(target) || !inFlight.mTargets.isEmpty() || inFlight.mIsPrefetch) {
+                return;
+            }
+
+            // The next request for the url starts over instead of joining a download which is going nowhere
+            mInFlight.remove(url);
+            if (Metrics.isEnabled()) {
+                Metrics.setGauge(Metrics.Gauge.IN_FLIGHT_DOWNLOADS, mInFlight.size());
+            }
+        }
+
+        cancel(inFlight);
+    }
+
+    // Closing the connection may block, it's done on the looper rather than on the main thread
+    private void cancel(final InFlight<T> inFlight) {
+        mRequestHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                inFlight.mCancellation.cancel();
+            }
+        });
+    }
+
+    @Override
+    public boolean quit() {
+        mExecutor.shutdownNow();
+
+        // The looper drops whatever is posted to it, the colors still waiting are written elsewhere
+        if (mRequestHandler != null) {
+            mRequestHandler.removeCallbacks(mFlushColors);
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(mFlushColors);
+
+        return super.quit();
+    }
+
+    // The scheduler has picked the target, it gets whatever thumbnail it wants by now
+    private void handleRequest(T target) {
+        Thumbnail thumbnail = mRequestMap.get(target);
+
+        if (thumbnail == null) {
+            return;
+        }
 
-            if (url == null) {
+        fetch(thumbnail, target);
+    }
+
+    // The target is null for the prefetches, they only fill the caches
+    private void fetch(Thumbnail thumbnail, T target) {
+        String url = thumbnail.mUrl;
+
+        // Try to retrieve the cached image, first from the memory, then from the disk and the network is the last resort
+        // Found for a target, it's pinned right away, the LRU may evict it before the main thread gets to bind it
+        Bitmap cached = target == null ? mCache.get(thumbnail.mKey) : mCache.getAndPin(thumbnail.mKey, target);
+        if (cached != null) {
+            if (target != null) {
+                deliver(target, thumbnail, cached);
+            }
+            return;
+        }
+
+        InFlight<T> inFlight;
+
+        // Somebody is already downloading this url, just wait for his result
+        synchronized (mInFlight) {
+            inFlight = mInFlight.get(url);
+
+            if (inFlight != null) {
+                if (target != null && !inFlight.mTargets.contains(target)) {
+                    inFlight.mTargets.add(target);
+                    Metrics.increment(Metrics.Counter.IN_FLIGHT_JOINED);
+                }
                 return;
             }
 
-            final Bitmap bitmap;
+            // A prefetch starts with nobody waiting, but the targets may join it while it runs
+            inFlight = new InFlight<>(target == null);
+            if (target != null) {
+                inFlight.mTargets.add(target);
+            }
+            mInFlight.put(url, inFlight);
+            if (Metrics.isEnabled()) {
+                Metrics.setGauge(Metrics.Gauge.IN_FLIGHT_DOWNLOADS, mInFlight.size());
+            }
+        }
+
+        Bitmap bitmap = null;
+
+        try {
+            bitmap = loadBitmap(url, inFlight.mCancellation);
+
+            if (bitmap == null) {
+                Log.e(TAG, "Failed to decode an image from " + url);
+                Metrics.increment(Metrics.Counter.DECODE_FAILURES);
+            } else {
+                savePreviewColor(thumbnail.mItem, bitmap);
+            }
+        } catch (IOException ioe) {
+            // A cancelled download fails one way or another, the closed socket included
+            if (inFlight.mCancellation.isCancelled()) {
+                Metrics.increment(Metrics.Counter.DOWNLOADS_CANCELLED);
+            } else {
+                Log.e(TAG, "Error downloading an image.", ioe);
+            }
+        } finally {
+            List<T> waiting;
+
+            // Once it's out of the table, the new requests go for the memory cache again
+            // (a cancelled one is out already, and the url may be downloaded by someone else by now)
+            // The bitmap goes to the cache pinned by everyone waiting for it, in the same step, so nobody can join in between unpinned
+            synchronized (mInFlight) {
+                if (mInFlight.get(url) == inFlight) {
+                    mInFlight.remove(url);
+                }
+                waiting = new ArrayList<>(inFlight.mTargets);
+
+                if (bitmap != null) {
+                    mCache.putAndPin(thumbnail.mKey, bitmap, waiting);
+                }
+            }
+
+            if (bitmap != null) {
+                for (T waitingTarget : waiting) {
+                    deliver(waitingTarget, thumbnail, bitmap);
+                }
+            }
+        }
+    }
+
+    // The first decode of a photo leaves its color behind, the cell shows it the next time before the thumbnail is there
+    private void savePreviewColor(GalleryItem item, Bitmap bitmap) {
+        if (item == null || item.getId() == null || item.hasPreviewColor()) {
+            return;
+        }
+
+        int color = calculatePreviewColor(bitmap);
+        // The item may be bound right now, an int is written at once so the main thread sees either color
+        item.setPreviewColor(color);
+
+        synchronized (mPendingColors) {
+            // The first color of a batch schedules the write, the rest just join it
+            if (mPendingColors.isEmpty()) {
+                mRequestHandler.postDelayed(mFlushColors, PREVIEW_FLUSH_DELAY_MILLIS);
+            }
+            mPendingColors.put(item.getId(), color);
+        }
+    }
+
+    // Everything decoded since the last flush, in a single transaction
+    private void flushPreviewColors() {
+        Map<String, Integer> colors;
+
+        synchronized (mPendingColors) {
+            colors = new HashMap<>(mPendingColors);
+            mPendingColors.clear();
+        }
+
+        if (!colors.isEmpty()) {
+            GalleryStore.get(mContext).putPreviewColors(colors);
+        }
+    }
+
+    // The average of a grid of pixels, always opaque, a few dozen getPixel() calls instead of a scaled copy of the bitmap
+    static int calculatePreviewColor(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+        int count = 0;
+
+        for (int row = 0; row < PREVIEW_SAMPLES; row++) {
+            int y = (2 * row + 1) * height / (2 * PREVIEW_SAMPLES);
+
+            for (int column = 0; column < PREVIEW_SAMPLES; column++) {
+                int pixel = bitmap.getPixel((2 * column + 1) * width / (2 * PREVIEW_SAMPLES), y);
+                red += (pixel >> 16) & 0xff;
+                green += (pixel >> 8) & 0xff;
+                blue += pixel & 0xff;
+                count++;
+            }
+        }
+
+        return 0xff000000 | (int) (red / count) << 16 | (int) (green / count) << 8 | (int) (blue / count);
+    }
+
+    // The decoder reads from a byte array or a file, this is what it takes to swap one for the other
+    private interface BitmapSource {
+        Bitmap decode(BitmapFactory.Options options);
+    }
+
+    private Bitmap decodeBitmap(final byte[] bytes) {
+        return decodeBitmap(new BitmapSource() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+            }
+        });
+    }
+
+    private Bitmap decodeBitmap(final File file) {
+        return decodeBitmap(new BitmapSource() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeFile(file.getPath(), options);
+            }
+        });
+    }
+
+    // Read just the dimensions first, then decode only as many pixels as the view is going to show
+    private Bitmap decodeBitmap(BitmapSource source) {
+        long start = Metrics.start();
+
+        try {
+            return decodeSampledBitmap(source);
+        } finally {
+            Metrics.stop(Metrics.Stage.BITMAP_DECODE, start);
+        }
+    }
+
+    private Bitmap decodeSampledBitmap(BitmapSource source) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        source.decode(options);
+
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, mTargetWidth, mTargetHeight);
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        // Only mutable bitmaps can be reused later on
+        options.inMutable = true;
+
+        // Before KitKat, the reused bitmap had to be the same size and no sampling was allowed
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT || options.inSampleSize == 1) {
+            options.inBitmap = mBitmapPool.get(
+                    divideRoundingUp(options.outWidth, options.inSampleSize),
+                    divideRoundingUp(options.outHeight, options.inSampleSize),
+                    Bitmap.Config.ARGB_8888);
+        }
+
+        try {
+            return source.decode(options);
+        } catch (IllegalArgumentException iae) {
+            // The decoder didn't like the bitmap to reuse after all, so allocate a new one
+            Log.v(TAG, "Failed to reuse a bitmap, decoding into a new one");
+            options.inBitmap = null;
+            return source.decode(options);
+        }
+    }
+
+    // The largest power of two which keeps both dimensions at or above the target
+    static int calculateInSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int inSampleSize = 1;
+
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return inSampleSize;
+        }
+
+        while (width / (inSampleSize * 2) >= targetWidth && height / (inSampleSize * 2) >= targetHeight) {
+            inSampleSize *= 2;
+        }
+
+        return inSampleSize;
+    }
+
+    private static int divideRoundingUp(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    // The bitmap is pinned by the target already, it's unpinned again if the target has moved on by the time it gets there
+    private void deliver(final T target, final Thumbnail thumbnail, final Bitmap bitmap) {
+        // use the convenience method in a predefined format
+        // tell the UI handler what he needs to run and he'll do it
+        final long postedAt = Metrics.start();
+
+        mResponseHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // How long the main thread kept it waiting
+                Metrics.stop(Metrics.Stage.UI_POST, postedAt);
+
+                // Check again, the recycler may have requested another url by now before the image download was done
+                if (!thumbnail.equals(mRequestMap.get(target))) {
+                    // Unless the target has pinned a newer delivery of the same key since
+                    mCache.unpin(target, thumbnail.mKey);
+                    Metrics.increment(Metrics.Counter.THUMBNAILS_DROPPED);
+                    return;
+                }
+
+                // On the screen from now on, it stays pinned until the target shows something else
+                // The target stays in the map with what it shows, a second delivery of the same thumbnail is bound again rather than
+                // dropped (dropping it would unpin what's on the screen)
+                // Notify the listener
+                mThumbnailDownloadListener.onThumbnailDownloaded(target, bitmap);
+            }
+        });
+    }
+
+    // The network is streamed right into the disk cache and the bitmap is decoded from the file, no byte array in between
+    // Once cancelled, it throws rather than spend the time decoding what nobody is going to see
+    // Only the network errors (and the cancellation) are thrown, a failing disk cache (full, read-only...) just isn't used this time
+    private Bitmap loadBitmap(String url, Cancellation cancellation) throws IOException {
+        if (mDiskCache == null) {
+            return downloadBitmap(url, cancellation);
+        }
+
+        String key = DiskCache.keyFor(url);
+        File file;
+
+        try {
+            file = getFromDiskCache(key);
+
+            if (file != null) {
+                Metrics.increment(Metrics.Counter.DISK_CACHE_HIT);
+            } else {
+                Metrics.increment(Metrics.Counter.DISK_CACHE_MISS);
+
+                if (downloadToDiskCache(url, key, cancellation)) {
+                    file = getFromDiskCache(key);
+                }
+            }
+        } catch (DiskCacheException dce) {
+            // The edit has been aborted, the thumbnail is downloaded again into memory (the bytes so far went to a broken file)
+            Log.w(TAG, "The disk cache failed, downloading " + url + " without it", dce.getCause());
+            return downloadBitmap(url, cancellation);
+        }
+
+        if (file == null) {
+            // Someone else is writing this entry right now, the network is still there
+            return downloadBitmap(url, cancellation);
+        }
+
+        // The file is complete, it stays for the next time even if this one is cancelled
+        cancellation.throwIfCancelled();
+
+        Bitmap bitmap = decodeBitmap(file);
+        if (bitmap == null) {
+            // Don't keep the broken file around, the next request will download it again
+            try {
+                mDiskCache.remove(key);
+            } catch (IOException ioe) {
+                Log.w(TAG, "Failed to remove a broken thumbnail from the disk cache", ioe);
+            }
+        }
+
+        return bitmap;
+    }
+
+    private Bitmap downloadBitmap(String url, Cancellation cancellation) throws IOException {
+        byte[] bytes = download(url, cancellation);
+        cancellation.throwIfCancelled();
+
+        return decodeBitmap(bytes);
+    }
+
+    private byte[] download(String url, Cancellation cancellation) throws IOException {
+        Semaphore permits = acquireHostPermit(url);
+        long start = Metrics.start();
+
+        try {
+            // It may have been cancelled while waiting for the permit
+            cancellation.throwIfCancelled();
+            byte[] bytes = new FlickrFetchr().getUrlBytes(url, cancellation);
+            Metrics.add(Metrics.Counter.BYTES_THUMBNAILS, bytes.length);
+
+            return bytes;
+        } finally {
+            permits.release();
+            Metrics.stop(Metrics.Stage.THUMBNAIL_DOWNLOAD, start);
+        }
+    }
+
+    // Returns false if someone else is writing the same entry right now
+    // A cancelled or failed download leaves nothing behind, the editor throws the partial file away
+    // Whatever the disk throws comes as a DiskCacheException, the rest is the network's
+    private boolean downloadToDiskCache(String url, String key, Cancellation cancellation) throws IOException {
+        DiskCache.Editor editor;
+        OutputStream out;
+
+        try {
+            editor = mDiskCache.edit(key);
+        } catch (IOException ioe) {
+            throw new DiskCacheException(ioe);
+        }
+
+        if (editor == null) {
+            return false;
+        }
+
+        try {
+            try {
+                out = new DiskCacheOutputStream(editor.newOutputStream());
+            } catch (IOException ioe) {
+                throw new DiskCacheException(ioe);
+            }
+
+            Semaphore permits = acquireHostPermit(url);
+            long start = Metrics.start();
+
+            try {
+                cancellation.throwIfCancelled();
+                Metrics.add(Metrics.Counter.BYTES_THUMBNAILS, new FlickrFetchr().copyUrlTo(url, out, cancellation));
+            } finally {
+                permits.release();
+                closeQuietly(out);
+                Metrics.stop(Metrics.Stage.THUMBNAIL_DOWNLOAD, start);
+            }
+
+            // The file may not be complete after a failed close, committing it would be worse than downloading it again
+            ((DiskCacheOutputStream) out).throwIfFailed();
+
+            try {
+                editor.commit();
+            } catch (IOException ioe) {
+                throw new DiskCacheException(ioe);
+            }
+
+            return true;
+        } finally {
+            editor.abortUnlessCommitted();
+        }
+    }
+
+    private File getFromDiskCache(String key) throws DiskCacheException {
+        try {
+            return mDiskCache.get(key);
+        } catch (IOException ioe) {
+            throw new DiskCacheException(ioe);
+        }
+    }
+
+    private static void closeQuietly(OutputStream out) {
+        try {
+            out.close();
+        } catch (IOException ignored) {
+            // Remembered by the stream itself
+        }
+    }
+
+    // The disk cache failed, not the network
+    private static class DiskCacheException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private DiskCacheException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    // Tells the disk's errors apart from the network's when both happen inside the same copy
+    private static class DiskCacheOutputStream extends FilterOutputStream {
+        private IOException mFailure;
+
+        private DiskCacheOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                out.write(b);
+            } catch (IOException ioe) {
+                throw fail(ioe);
+            }
+        }
 
-            // Try to retrieve the cached image
-            if (mCache.get(url) == null) {
-                byte[] bitmapBytes = new FlickrFetchr().getUrlBytes(url);
-                bitmap = BitmapFactory.decodeByteArray(bitmapBytes, 0, bitmapBytes.length);
-                mCache.put(url, bitmap);
-                Log.v(TAG, "A new bitmap created and cached");
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            try {
+                out.write(buffer, offset, count);
+            } catch (IOException ioe) {
+                throw fail(ioe);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException ioe) {
+                throw fail(ioe);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } catch (IOException ioe) {
+                throw fail(ioe);
+            }
+        }
+
+        public void throwIfFailed() throws DiskCacheException {
+            if (mFailure != null) {
+                throw new DiskCacheException(mFailure);
+            }
+        }
+
+        private DiskCacheException fail(IOException ioe) {
+            if (mFailure == null) {
+                mFailure = ioe;
+            }
+
+            return new DiskCacheException(ioe);
+        }
+    }
+
+    // Waits for a free slot for the url's host, the other hosts are not affected
+    private Semaphore acquireHostPermit(String url) throws IOException {
+        Semaphore permits = getHostPermits(new URL(url).getHost());
+
+        try {
+            permits.acquire();
+        } catch (InterruptedException ie) {
+            // The pool is being shut down
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + url);
+        }
+
+        return permits;
+    }
+
+    private Semaphore getHostPermits(String host) {
+        Semaphore permits = mHostPermits.get(host);
+
+        if (permits == null) {
+            Semaphore newPermits = new Semaphore(mMaxRequestsPerHost);
+            permits = mHostPermits.putIfAbsent(host, newPermits);
+
+            if (permits == null) {
+                permits = newPermits;
+            }
+        }
+
+        return permits;
+    }
+
+    // What the scheduler hands out to the workers
+    private class DownloadTask implements Runnable {
+        // The requests have their target and look up its current thumbnail when they run, the prefetches only have the thumbnail
+        private final T mTarget;
+        private final Thumbnail mThumbnail;
+
+        private DownloadTask(T target, Thumbnail thumbnail) {
+            mTarget = target;
+            mThumbnail = thumbnail;
+        }
+
+        @Override
+        public void run() {
+            if (mTarget != null) {
+                handleRequest(mTarget);
             } else {
-                bitmap = mCache.get(url);
+                mPrefetchTasks.remove(mThumbnail.mUrl, this);
+                fetch(mThumbnail, null);
             }
+        }
+    }
 
-            // use the convenience method in a predefined format
-            // tell the UI handler what he needs to run and he'll do it
-            mResponseHandler.post(new Runnable() {
+    // Name the workers so they're recognizable in the debugger and keep them off the UI's toes
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
                 @Override
                 public void run() {
-                    // Check again, the recycler may have requested another url by now before the image download was done
-                    if (mRequestMap.get(target) != url) {
-                        return;
-                    }
-
-                    // Clean the map, this task is done
-                    mRequestMap.remove(target);
-                    // Notify the listener
-                    mThumbnailDownloadListener.onThumbnailDownloaded(target, bitmap);
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
                 }
-            });
-        } catch (IOException ioe) {
-            Log.e(TAG, "Error downloading an image.", ioe);
+            }, TAG + "-worker-" + mCount.incrementAndGet());
         }
     }
 }
@@ -0,0 +1,88 @@
+package cz.zdrubecky.photogallery;
+
+import android.os.SystemClock;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+// Watches the scrolling and asks the downloader for the thumbnails just past the edge of the screen, before their cells show up
+// The faster the scroll, the further ahead it looks
+// Turning around makes everything queued so far useless, so it's cancelled
+public class ThumbnailPrefetcher extends RecyclerView.OnScrollListener {
+    // Two rows of the grid when scrolling slowly, ten when flinging
+    private static final int MIN_PREFETCH_COUNT = 6;
+    private static final int MAX_PREFETCH_COUNT = 30;
+    // Pixels per millisecond at which the whole window is used, a decent fling goes well over that
+    private static final float MAX_PREFETCH_VELOCITY = 5f;
+
+    private final ThumbnailDownloader<?> mThumbnailDownloader;
+    private final ItemSource mItemSource;
+    // 1 for down, -1 for up, 0 before the first scroll
+    private int mDirection;
+    // The furthest position queued in the current direction
+    private int mLastPrefetchedPosition = RecyclerView.NO_POSITION;
+    private long mLastScrollTime;
+
+    // Where the items come from, the prefetcher doesn't care about the adapter
+    public interface ItemSource {
+        int getItemCount();
+
+        // Null if the item isn't at hand, it's skipped then
+        GalleryItem getItem(int position);
+    }
+
+    public ThumbnailPrefetcher(ThumbnailDownloader<?> thumbnailDownloader, ItemSource itemSource) {
+        mThumbnailDownloader = thumbnailDownloader;
+        mItemSource = itemSource;
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0) {
+            return;
+        }
+
+        int direction = dy > 0 ? 1 : -1;
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - mLastScrollTime;
+        mLastScrollTime = now;
+
+        if (direction != mDirection) {
+            mThumbnailDownloader.cancelPrefetches();
+            mDirection = direction;
+            mLastPrefetchedPosition = RecyclerView.NO_POSITION;
+        }
+
+        // The scroll callbacks come every frame, so dy over the time between them makes a good enough velocity
+        float velocity = elapsed > 0 ? Math.abs(dy) / (float) elapsed : 0;
+        float speedRatio = Math.min(1f, velocity / MAX_PREFETCH_VELOCITY);
+        int count = MIN_PREFETCH_COUNT + Math.round((MAX_PREFETCH_COUNT - MIN_PREFETCH_COUNT) * speedRatio);
+
+        LinearLayoutManager manager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        int edge = direction > 0 ? manager.findLastVisibleItemPosition() : manager.findFirstVisibleItemPosition();
+
+        if (edge == RecyclerView.NO_POSITION) {
+            return;
+        }
+
+        int from = edge + direction;
+        int to = clamp(edge + direction * count, 0, mItemSource.getItemCount() - 1);
+
+        // Skip the positions already queued on the previous frames
+        if (mLastPrefetchedPosition != RecyclerView.NO_POSITION) {
+            from = direction > 0 ? Math.max(from, mLastPrefetchedPosition + 1) : Math.min(from, mLastPrefetchedPosition - 1);
+        }
+
+        for (int position = from; direction > 0 ? position <= to : position >= to; position += direction) {
+            GalleryItem item = mItemSource.getItem(position);
+
+            if (item != null) {
+                mThumbnailDownloader.prefetchThumbnail(item, position);
+            }
+            mLastPrefetchedPosition = position;
+        }
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,117 @@
+package cz.zdrubecky.photogallery;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+// Puts the thumbnails of the first screen into the disk cache before anyone asks for them
+// The poll does this when it finds new photos, so the notification opens onto a grid which only has to decode the files
+// It stops at a byte budget, a thumbnail which doesn't fit into what's left is thrown away half-written
+public class ThumbnailWarmer {
+    private static final String TAG = "ThumbnailWarmer";
+
+    private final DiskCache mDiskCache;
+    private final FlickrFetchr mFetchr = new FlickrFetchr();
+    // The size of the grid's cells, so the warmed thumbnails are the very ones the grid asks for
+    private final int mCellWidth;
+    private final int mCellHeight;
+    private long mBytesLeft;
+
+    public ThumbnailWarmer(Context context, long byteBudget) {
+        mDiskCache = ThumbnailDownloader.getDiskCache(context);
+        mCellWidth = PhotoGalleryFragment.getCellWidth(context);
+        mCellHeight = PhotoGalleryFragment.getCellHeight(context);
+        mBytesLeft = byteBudget;
+    }
+
+    // Returns the number of thumbnails downloaded, the ones cached before don't count
+    public int warm(List<GalleryItem> items, int count) {
+        if (mDiskCache == null) {
+            return 0;
+        }
+
+        int warmed = 0;
+
+        for (int i = 0; i < Math.min(count, items.size()) && mBytesLeft > 0; i++) {
+            String url = items.get(i).getUrlFor(mCellWidth, mCellHeight);
+
+            if (url == null) {
+                continue;
+            }
+
+            try {
+                if (download(url)) {
+                    warmed++;
+                }
+            } catch (IOException ioe) {
+                // Over the budget or a failed download, the grid will get it the usual way
+                Log.i(TAG, "Failed to warm " + url + ": " + ioe.getMessage());
+            }
+        }
+
+        return warmed;
+    }
+
+    private boolean download(String url) throws IOException {
+        String key = DiskCache.keyFor(url);
+
+        if (mDiskCache.get(key) != null) {
+            return false;
+        }
+
+        // Null if the gallery is downloading it right now, then it's taken care of
+        DiskCache.Editor editor = mDiskCache.edit(key);
+
+        if (editor == null) {
+            return false;
+        }
+
+        try {
+            OutputStream out = new BudgetOutputStream(editor.newOutputStream());
+
+            try {
+                mFetchr.copyUrlTo(url, out);
+            } finally {
+                out.close();
+            }
+
+            editor.commit();
+
+            return true;
+        } finally {
+            editor.abortUnlessCommitted();
+        }
+    }
+
+    // Counts the bytes against the budget and gives up as soon as it's used up
+    private class BudgetOutputStream extends FilterOutputStream {
+        public BudgetOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            spend(1);
+            out.write(oneByte);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            spend(length);
+            out.write(buffer, offset, length);
+        }
+
+        private void spend(int length) throws IOException {
+            if (length > mBytesLeft) {
+                mBytesLeft = 0;
+                throw new IOException("Out of the byte budget");
+            }
+
+            mBytesLeft -= length;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package cz.zdrubecky.photogallery;
+
+import java.lang.ref.SoftReference;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// The policy of the thumbnail cache (see ThumbnailCache), without anything from Android so the benchmarks run the very same code
+// The first tier is an LRU of strong references, sized by sizeOf()
+// Behind it are the values the LRU has evicted, held softly so the garbage collector takes them only when it needs the memory,
+// and whatever falls out of there is handed to recycle()
+// The LRU's order follows the last get() or put(), not what's on the screen, so a burst of prefetches may well evict a visible value
+// That's why the targets pin their values, the LRU may evict a pinned one but it's held strongly until unpinned and never recycled
+// A value is pinned in the same step it's found or put (getAndPin(), putAndPin()), before it's handed over to another thread,
+// otherwise it could be evicted and recycled while its delivery is still on its way
+// Everything is guarded by the cache itself, the workers and the main thread use it at the same time
+public abstract class TieredCache<V> {
+    // Access ordered, the eldest entry is the one to evict first
+    private final LinkedHashMap<String, V> mStrongCache = new LinkedHashMap<>(16, 0.75f, true);
+    private final int mMaxSize;
+    private int mSize;
+    // Access ordered as well, the eldest entry is the one to give up first
+    private final LinkedHashMap<String, SoftReference<V>> mSoftCache = new LinkedHashMap<>(16, 0.75f, true);
+    private final int mMaxSoftEntries;
+    // The key shown by each target, and how many targets show each key
+    private final Map<Object, String> mPinnedKeys = new HashMap<>();
+    private final Map<String, Integer> mPinCounts = new HashMap<>();
+    // The pinned values the LRU has evicted
+    private final Map<String, V> mPinnedValues = new HashMap<>();
+
+    private long mHitCount;
+    private long mSoftHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    // The size is in whatever units sizeOf() returns
+    public TieredCache(int maxSize, int maxSoftEntries) {
+        mMaxSize = maxSize;
+        mMaxSoftEntries = maxSoftEntries;
+    }
+
+    // Must not change while the value is in the cache
+    protected abstract int sizeOf(V value);
+
+    // The value has left both tiers and nobody shows it, it's free to be reused
+    protected void recycle(V value) {
+    }
+
+    public synchronized V get(String key) {
+        V value = mStrongCache.get(key);
+
+        if (value == null) {
+            value = mPinnedValues.get(key);
+        }
+
+        if (value != null) {
+            mHitCount++;
+            Metrics.increment(Metrics.Counter.MEMORY_CACHE_HIT);
+            return value;
+        }
+
+        SoftReference<V> reference = mSoftCache.remove(key);
+        value = reference == null ? null : reference.get();
+
+        if (value != null) {
+            // Back to the first tier, it's wanted again
+            mSoftHitCount++;
+            Metrics.increment(Metrics.Counter.SOFT_CACHE_HIT);
+            putStrong(key, value);
+            return value;
+        }
+
+        mMissCount++;
+        Metrics.increment(Metrics.Counter.MEMORY_CACHE_MISS);
+
+        return null;
+    }
+
+    // The target is going to show the value, it's pinned before anyone else can evict it
+    public synchronized V getAndPin(String key, Object target) {
+        V value = get(key);
+
+        if (value != null) {
+            pin(target, key);
+        }
+
+        return value;
+    }
+
+    // Doesn't count as a hit or a miss, and doesn't bring anything back from the second tier
+    // (the LRU does count it as a use, but whoever asks is about to need the value anyway)
+    public synchronized boolean contains(String key) {
+        if (mPinnedValues.containsKey(key) || mStrongCache.get(key) != null) {
+            return true;
+        }
+
+        SoftReference<V> reference = mSoftCache.get(key);
+
+        return reference != null && reference.get() != null;
+    }
+
+    public synchronized void put(String key, V value) {
+        mSoftCache.remove(key);
+        // The old one may still be on the screen, it's just forgotten, not recycled
+        mPinnedValues.remove(key);
+        putStrong(key, value);
+    }
+
+    // Pinned first, so that the put itself can't evict the value into recycling (a value larger than the LRU would be)
+    public synchronized void putAndPin(String key, V value, Collection<?> targets) {
+        for (Object target : targets) {
+            pin(target, key);
+        }
+
+        put(key, value);
+    }
+
+    // The target shows the key's value now, whatever it showed before is unpinned
+    public synchronized void pin(Object target, String key) {
+        unpin(target);
+
+        mPinnedKeys.put(target, key);
+        Integer count = mPinCounts.get(key);
+        mPinCounts.put(key, count == null ? 1 : count + 1);
+    }
+
+    public synchronized void unpin(Object target) {
+        String key = mPinnedKeys.remove(target);
+
+        if (key == null) {
+            return;
+        }
+
+        int count = mPinCounts.get(key) - 1;
+
+        if (count > 0) {
+            mPinCounts.put(key, count);
+            return;
+        }
+
+        mPinCounts.remove(key);
+
+        // Evicted while it was pinned, now it's just one of the recently evicted
+        V value = mPinnedValues.remove(key);
+        if (value != null) {
+            addSoft(key, value);
+        }
+    }
+
+    // Only if the target still has the key pinned, a delivery which is dropped mustn't unpin the value delivered after it
+    public synchronized void unpin(Object target, String key) {
+        if (key.equals(mPinnedKeys.get(target))) {
+            unpin(target);
+        }
+    }
+
+    // The views are gone
+    public synchronized void unpinAll() {
+        for (Map.Entry<String, V> entry : mPinnedValues.entrySet()) {
+            addSoft(entry.getKey(), entry.getValue());
+        }
+
+        mPinnedValues.clear();
+        mPinnedKeys.clear();
+        mPinCounts.clear();
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getSoftHitCount() {
+        return mSoftHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    // A replaced value isn't evicted, it may have just been handed to a target
+    private void putStrong(String key, V value) {
+        V previous = mStrongCache.put(key, value);
+
+        mSize += sizeOf(value);
+        if (previous != null) {
+            mSize -= sizeOf(previous);
+        }
+
+        Iterator<Map.Entry<String, V>> iterator = mStrongCache.entrySet().iterator();
+
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Map.Entry<String, V> eldest = iterator.next();
+            iterator.remove();
+            mSize -= sizeOf(eldest.getValue());
+            onEvicted(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private void onEvicted(String key, V value) {
+        mEvictionCount++;
+        Metrics.increment(Metrics.Counter.MEMORY_CACHE_EVICTIONS);
+
+        if (mPinCounts.containsKey(key)) {
+            mPinnedValues.put(key, value);
+        } else {
+            addSoft(key, value);
+        }
+    }
+
+    private void addSoft(String key, V value) {
+        mSoftCache.put(key, new SoftReference<>(value));
+
+        Iterator<SoftReference<V>> iterator = mSoftCache.values().iterator();
+
+        while (mSoftCache.size() > mMaxSoftEntries && iterator.hasNext()) {
+            V eldest = iterator.next().get();
+            iterator.remove();
+
+            // Still there, it can be reused
+            if (eldest != null) {
+                recycle(eldest);
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package cz.zdrubecky.photogallery;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// The tasks waiting for a worker, ordered by how far their positions are from what's on the screen
+// The distance is counted in screens: the visible positions go first, then the ones within a screen of them, and so on,
+// and within a band the newest task goes first, the older ones are mostly the cells the user has flung past
+// The order is worked out when a worker asks for the next task, so moving the viewport re-ranks everything already waiting
+// It's a few dozen tasks at most, a scan over them is cheaper than keeping a heap in order through every scroll
+// Everything is guarded by the scheduler itself, the main thread schedules and the workers poll
+public class ViewportScheduler {
+    public static final int NO_POSITION = -1;
+
+    // By whatever the caller tells its tasks apart with, the same key replaces the task waiting under it
+    private final Map<Object, Entry> mEntries = new HashMap<>();
+    private int mFirstVisible = NO_POSITION;
+    private int mLastVisible = NO_POSITION;
+    private long mSequence;
+
+    private static class Entry {
+        private final Runnable mTask;
+        private final int mPosition;
+        private final long mSequence;
+
+        public Entry(Runnable task, int position, long sequence) {
+            mTask = task;
+            mPosition = position;
+            mSequence = sequence;
+        }
+    }
+
+    // Call it on every scroll, the tasks are ranked against it from then on
+    public synchronized void setViewport(int firstVisible, int lastVisible) {
+        if (firstVisible < 0 || lastVisible < firstVisible) {
+            return;
+        }
+
+        mFirstVisible = firstVisible;
+        mLastVisible = lastVisible;
+    }
+
+    // A task without a position (NO_POSITION) is taken for a visible one
+    // A target only ever needs its latest thumbnail, so whatever it was waiting for before is forgotten
+    public synchronized void schedule(Object key, Runnable task, int position) {
+        mEntries.put(key, new Entry(task, position, mSequence++));
+    }
+
+    public synchronized boolean remove(Object key) {
+        return mEntries.remove(key) != null;
+    }
+
+    // The task to run next, null if there's none (the executor may have more wake-ups than there are tasks)
+    public synchronized Runnable poll() {
+        Map.Entry<Object, Entry> best = null;
+        int bestBand = Integer.MAX_VALUE;
+
+        for (Map.Entry<Object, Entry> candidate : mEntries.entrySet()) {
+            int band = getBand(candidate.getValue().mPosition);
+
+            if (band < bestBand || (band == bestBand && candidate.getValue().mSequence > best.getValue().mSequence)) {
+                best = candidate;
+                bestBand = band;
+            }
+        }
+
+        if (best == null) {
+            return null;
+        }
+
+        mEntries.remove(best.getKey());
+
+        return best.getValue().mTask;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    // Drops the tasks under the given keys, the rest keep waiting
+    public synchronized void removeAll(Iterable<?> keys) {
+        for (Object key : keys) {
+            mEntries.remove(key);
+        }
+    }
+
+    // 0 for the visible positions, 1 for the ones within a screen of them, 2 for the next screen...
+    synchronized int getBand(int position) {
+        if (position == NO_POSITION || mFirstVisible == NO_POSITION) {
+            return 0;
+        }
+
+        int distance;
+
+        if (position < mFirstVisible) {
+            distance = mFirstVisible - position;
+        } else if (position > mLastVisible) {
+            distance = position - mLastVisible;
+        } else {
+            return 0;
+        }
+
+        int screen = mLastVisible - mFirstVisible + 1;
+
+        return 1 + (distance - 1) / screen;
+    }
+}
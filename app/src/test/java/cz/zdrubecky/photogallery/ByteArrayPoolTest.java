@@ -0,0 +1,64 @@
+package cz.zdrubecky.photogallery;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ByteArrayPoolTest {
+    private static final int SIZE_LIMIT = 100;
+
+    private ByteArrayPool mPool;
+
+    @Before
+    public void setUp() {
+        mPool = new ByteArrayPool(SIZE_LIMIT);
+    }
+
+    @Test
+    public void handsOutTheSmallestFittingArray() {
+        byte[] small = new byte[10];
+        byte[] medium = new byte[30];
+        byte[] large = new byte[50];
+        mPool.returnBuf(large);
+        mPool.returnBuf(small);
+        mPool.returnBuf(medium);
+
+        assertSame(medium, mPool.getBuf(20));
+        assertSame(small, mPool.getBuf(10));
+        assertEquals(50, mPool.size());
+
+        // Nothing big enough left
+        byte[] created = mPool.getBuf(60);
+        assertEquals(60, created.length);
+        assertEquals(50, mPool.size());
+    }
+
+    @Test
+    public void throwsOutTheLeastRecentlyReturned() {
+        byte[] first = new byte[40];
+        byte[] second = new byte[40];
+        byte[] third = new byte[40];
+        mPool.returnBuf(first);
+        mPool.returnBuf(second);
+        mPool.returnBuf(third);
+
+        assertEquals(80, mPool.size());
+        // The same size, only the references tell which one is still there
+        byte[] kept = mPool.getBuf(40);
+        assertTrue(kept == second || kept == third);
+        assertNotSame(first, mPool.getBuf(40));
+        assertEquals(0, mPool.size());
+    }
+
+    @Test
+    public void doesNotKeepWhatIsOverTheLimit() {
+        mPool.returnBuf(new byte[SIZE_LIMIT + 1]);
+        mPool.returnBuf(null);
+
+        assertEquals(0, mPool.size());
+    }
+}
@@ -0,0 +1,87 @@
+package cz.zdrubecky.photogallery;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ByteStreamsTest {
+    // Longer than a single buffer, so the reads have to go round a few times
+    private static final int BODY_LENGTH = 3 * ByteStreams.BUFFER_SIZE + 100;
+
+    private byte[] mBody;
+    private ByteArrayPool mPool;
+
+    @Before
+    public void setUp() {
+        mBody = new byte[BODY_LENGTH];
+        for (int i = 0; i < mBody.length; i++) {
+            mBody[i] = (byte) (i * 31);
+        }
+
+        mPool = new ByteArrayPool(64 * 1024);
+    }
+
+    @Test
+    public void readsTheExactLength() throws IOException {
+        assertArrayEquals(mBody, ByteStreams.readFully(new TrickleInputStream(mBody), BODY_LENGTH, mPool));
+    }
+
+    @Test
+    public void readsAMissingLength() throws IOException {
+        assertArrayEquals(mBody, ByteStreams.readFully(new TrickleInputStream(mBody), -1, mPool));
+    }
+
+    @Test
+    public void readsOnPastATooShortLength() throws IOException {
+        // A gzipped response says how long it is zipped, the stream gives it unzipped
+        assertArrayEquals(mBody, ByteStreams.readFully(new TrickleInputStream(mBody), 1000, mPool));
+        assertArrayEquals(mBody, ByteStreams.readFully(new TrickleInputStream(mBody), BODY_LENGTH - 1, mPool));
+    }
+
+    @Test
+    public void failsOnATooLongLength() {
+        try {
+            ByteStreams.readFully(new TrickleInputStream(mBody), BODY_LENGTH + 1, mPool);
+            fail("The body was cut short");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void readsAnEmptyBody() throws IOException {
+        assertEquals(0, ByteStreams.readFully(new ByteArrayInputStream(new byte[0]), 0, mPool).length);
+        assertEquals(0, ByteStreams.readFully(new ByteArrayInputStream(new byte[0]), -1, mPool).length);
+    }
+
+    @Test
+    public void copiesAndGivesTheBufferBack() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(BODY_LENGTH, ByteStreams.copy(new TrickleInputStream(mBody), out, mPool));
+        assertArrayEquals(mBody, out.toByteArray());
+        assertEquals(ByteStreams.BUFFER_SIZE, mPool.size());
+    }
+
+    // Hands out a few bytes at a time, like a socket does
+    private static class TrickleInputStream extends ByteArrayInputStream {
+        private static final int CHUNK_SIZE = 1000;
+
+        public TrickleInputStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public synchronized int read(byte[] buffer, int offset, int length) {
+            return super.read(buffer, offset, Math.min(length, CHUNK_SIZE));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package cz.zdrubecky.photogallery;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CancellationTest {
+    @Test
+    public void stopsTheStreamBetweenTheChunks() throws Exception {
+        final Cancellation cancellation = new Cancellation();
+        InputStream in = cancellation.wrap(new ByteArrayInputStream(new byte[64 * 1024]));
+        byte[] buffer = new byte[1024];
+
+        assertEquals(1024, in.read(buffer));
+        cancellation.cancel();
+
+        try {
+            in.read(buffer);
+            fail("Read after the cancellation");
+        } catch (InterruptedIOException expected) {
+            assertTrue(cancellation.isCancelled());
+        }
+    }
+
+    @Test
+    public void stopsACopyHalfWay() throws Exception {
+        final Cancellation cancellation = new Cancellation();
+        // Cancels itself once the first chunk is through, like the main thread would while it runs
+        InputStream in = cancellation.wrap(new ByteArrayInputStream(new byte[64 * 1024]) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int count) {
+                int read = super.read(buffer, offset, count);
+                cancellation.cancel();
+                return read;
+            }
+        });
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try {
+            ByteStreams.copy(in, out, new ByteArrayPool(64 * 1024));
+            fail("Copied everything");
+        } catch (InterruptedIOException expected) {
+            assertTrue(out.size() < 64 * 1024);
+        }
+    }
+}
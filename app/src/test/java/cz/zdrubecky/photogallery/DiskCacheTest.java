@@ -0,0 +1,144 @@
+package cz.zdrubecky.photogallery;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class DiskCacheTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void dropsTheEntriesLeftDirtyByACrash() throws Exception {
+        File directory = mFolder.newFolder();
+        DiskCache cache = DiskCache.open(directory, 1024);
+        write(cache, "clean", 4);
+
+        // The process dies in the middle of the write, the DIRTY line is in the journal but the CLEAN one never comes
+        DiskCache.Editor editor = cache.edit("dirty");
+        OutputStream out = editor.newOutputStream();
+        out.write(new byte[3]);
+        out.close();
+
+        DiskCache reopened = DiskCache.open(directory, 1024);
+
+        assertNotNull(reopened.get("clean"));
+        assertNull(reopened.get("dirty"));
+        assertFalse(new File(directory, "dirty.tmp").exists());
+        assertEquals(4, reopened.size());
+    }
+
+    @Test
+    public void keepsTheEntriesBeforeATornLastLine() throws Exception {
+        File directory = mFolder.newFolder();
+        DiskCache cache = DiskCache.open(directory, 1024);
+        write(cache, "a", 4);
+        write(cache, "b", 4);
+        cache.close();
+
+        // Killed half-way through appending a line, no newline after it
+        Writer journal = new FileWriter(new File(directory, "journal"), true);
+        journal.write("DIRTY c\nCLEAN c");
+        journal.close();
+
+        DiskCache reopened = DiskCache.open(directory, 1024);
+
+        assertNotNull(reopened.get("a"));
+        assertNotNull(reopened.get("b"));
+        // Never committed as far as the journal knows
+        assertNull(reopened.get("c"));
+        assertEquals(8, reopened.size());
+
+        // The journal is whole again, the next open reads it all
+        write(reopened, "d", 4);
+        reopened.close();
+        assertNotNull(DiskCache.open(directory, 1024).get("d"));
+    }
+
+    @Test
+    public void startsOverAfterABadLineInTheMiddle() throws Exception {
+        File directory = mFolder.newFolder();
+        DiskCache cache = DiskCache.open(directory, 1024);
+        write(cache, "a", 4);
+        cache.close();
+
+        Writer journal = new FileWriter(new File(directory, "journal"), true);
+        journal.write("GARBAGE\nREAD a\n");
+        journal.close();
+
+        assertNull(DiskCache.open(directory, 1024).get("a"));
+    }
+
+    @Test
+    public void trimsTheLeastRecentlyUsed() throws Exception {
+        DiskCache cache = DiskCache.open(mFolder.newFolder(), 10);
+        write(cache, "a", 4);
+        write(cache, "b", 4);
+        // Read again, so b is the eldest now
+        cache.get("a");
+        write(cache, "c", 4);
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(8, cache.size());
+    }
+
+    @Test
+    public void survivesACommitWhichFails() throws Exception {
+        DiskCache cache = DiskCache.open(mFolder.newFolder(), 1024);
+        DiskCache.Editor editor = cache.edit("a");
+        OutputStream out = editor.newOutputStream();
+        out.write(new byte[4]);
+        out.close();
+
+        cache.setJournalWriter(new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int count) throws IOException {
+                throw new IOException("No space left on device");
+            }
+
+            @Override
+            public void flush() throws IOException {
+                throw new IOException("No space left on device");
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        try {
+            editor.commit();
+            fail("The journal didn't fail");
+        } catch (IOException expected) {
+            // Used to throw an IllegalStateException from here, the editor had been let go of already
+            editor.abortUnlessCommitted();
+        }
+    }
+
+    private static void write(DiskCache cache, String key, int length) throws IOException {
+        DiskCache.Editor editor = cache.edit(key);
+        OutputStream out = editor.newOutputStream();
+
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+
+        editor.commit();
+    }
+}
@@ -0,0 +1,56 @@
+package cz.zdrubecky.photogallery;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+// The timing lives in the benchmark module, this only checks the streaming parser reads the same items as plain Gson
+public class GalleryItemParserTest {
+    private static final String FIXTURE = "/flickr_recent_page1.json";
+
+    @Test
+    public void readsTheSameItemsAsGson() throws Exception {
+        List<GalleryItem> expected = parseWithGson();
+        List<GalleryItem> actual;
+
+        InputStream in = getClass().getResourceAsStream(FIXTURE);
+        try {
+            actual = GalleryItemParser.parse(in);
+        } finally {
+            in.close();
+        }
+
+        assertEquals(100, expected.size());
+        assertEquals(expected.size(), actual.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertEquals(expected.get(i).getCaption(), actual.get(i).getCaption());
+            assertEquals(expected.get(i).getUrl(), actual.get(i).getUrl());
+            assertEquals(expected.get(i).getWidth(), actual.get(i).getWidth());
+        }
+    }
+
+    // The whole tree first, then the photo array bound in one go
+    private List<GalleryItem> parseWithGson() throws Exception {
+        InputStream in = getClass().getResourceAsStream(FIXTURE);
+
+        try {
+            JsonElement root = new JsonParser().parse(new InputStreamReader(in, "UTF-8"));
+            JsonElement photos = root.getAsJsonObject().getAsJsonObject("photos").get("photo");
+
+            return Arrays.asList(new Gson().fromJson(photos, GalleryItem[].class));
+        } finally {
+            in.close();
+        }
+    }
+}
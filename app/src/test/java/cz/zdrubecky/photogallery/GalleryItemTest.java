@@ -0,0 +1,63 @@
+package cz.zdrubecky.photogallery;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class GalleryItemTest {
+    // A landscape photo with all the sizes the fetcher asks for, the dimensions as Flickr sends them (strings)
+    private static final String RESPONSE = "{\"photos\":{\"page\":1,\"photo\":[{\"id\":\"1\",\"title\":\"bridge\"," +
+            "\"url_t\":\"https://example.com/1_t.jpg\",\"height_t\":\"67\",\"width_t\":\"100\"," +
+            "\"url_q\":\"https://example.com/1_q.jpg\",\"height_q\":\"150\",\"width_q\":\"150\"," +
+            "\"url_s\":\"https://example.com/1_m.jpg\",\"height_s\":\"160\",\"width_s\":\"240\"," +
+            "\"url_m\":\"https://example.com/1.jpg\",\"height_m\":\"333\",\"width_m\":\"500\"}]},\"stat\":\"ok\"}";
+
+    private GalleryItem mItem;
+
+    @Before
+    public void setUp() throws Exception {
+        List<GalleryItem> items = GalleryItemParser.parse(new StringReader(RESPONSE));
+        mItem = items.get(0);
+    }
+
+    @Test
+    public void readsAllTheSizes() {
+        assertEquals(240, mItem.getWidth());
+        assertEquals(67, mItem.getThumbnailHeight());
+        assertEquals("https://example.com/1_q.jpg", mItem.getSquareUrl());
+        assertEquals(500, mItem.getMediumWidth());
+    }
+
+    @Test
+    public void picksTheSmallestSizeCoveringTheCell() {
+        // A 120 dp cell a third of a 320 dp wide screen, ldpi, mdpi and xhdpi
+        assertEquals("https://example.com/1_t.jpg", mItem.getUrlFor(80, 67));
+        assertEquals("https://example.com/1_t.jpg", mItem.getUrlFor(107, 120));
+        assertEquals("https://example.com/1_q.jpg", mItem.getUrlFor(213, 240));
+        // Neither side may be left too short, the cell crops the photo (url_t is wide enough, but not high enough)
+        assertEquals("https://example.com/1_q.jpg", mItem.getUrlFor(120, 200));
+    }
+
+    @Test
+    public void staysWithASmallSizeOnAnXxhdpiPhone() {
+        // A third of a 1080 px wide screen, 120 dp high, the cell the grid really has there
+        // The square covers it as well as url_s would, for fewer bytes, url_m would be three times those
+        assertEquals("https://example.com/1_q.jpg", mItem.getUrlFor(360, 360));
+        // A tablet's cell is too much even for that, the largest size it is
+        assertEquals("https://example.com/1.jpg", mItem.getUrlFor(800, 600));
+    }
+
+    @Test
+    public void fallsBackToTheDefaultSize() {
+        GalleryItem stored = new GalleryItem();
+        stored.setUrl("https://example.com/1_m.jpg");
+
+        // Without the dimensions nothing is known to cover the cell
+        assertEquals("https://example.com/1_m.jpg", stored.getUrlFor(107, 120));
+        assertEquals("https://example.com/1_m.jpg", mItem.getUrlFor(0, 0));
+    }
+}
@@ -0,0 +1,112 @@
+package cz.zdrubecky.photogallery;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GalleryPagedListTest {
+    private static final int PAGE_SIZE = 100;
+
+    private List<Integer> mRestoreRequests;
+    private GalleryPagedList mList;
+
+    @Before
+    public void setUp() {
+        mRestoreRequests = new ArrayList<>();
+        mList = new GalleryPagedList(null, 1, new GalleryPagedList.PageRestorer() {
+            @Override
+            public void restorePage(GalleryPagedList items, int page) {
+                mRestoreRequests.add(page);
+            }
+        });
+    }
+
+    @Test
+    public void dropsThePhotosItAlreadyHas() {
+        assertEquals(PAGE_SIZE, mList.appendPage(TestItems.createPage(1, PAGE_SIZE)));
+        // getRecent has shifted by ten photos, so the second page starts with the last ten of the first one
+        assertEquals(PAGE_SIZE - 10, mList.appendPage(TestItems.createPage(91, PAGE_SIZE)));
+
+        assertEquals(2 * PAGE_SIZE - 10, mList.size());
+        assertEquals("101", mList.get(PAGE_SIZE).getId());
+        assertEquals(PAGE_SIZE, mList.getPageStart(2));
+    }
+
+    @Test
+    public void keepsOnlyThePagesAroundTheViewport() {
+        for (int page = 0; page < 10; page++) {
+            mList.appendPage(TestItems.createPage(page * PAGE_SIZE + 1, PAGE_SIZE));
+        }
+
+        // The viewport on the sixth page, one page is kept on either side
+        assertEquals(7, mList.setViewport(5 * PAGE_SIZE + 10, 5 * PAGE_SIZE + 30));
+
+        assertNull(mList.peek(0));
+        assertNotNull(mList.peek(4 * PAGE_SIZE));
+        assertNotNull(mList.peek(6 * PAGE_SIZE + 99));
+        assertNull(mList.peek(7 * PAGE_SIZE));
+        // The positions don't move
+        assertEquals(10 * PAGE_SIZE, mList.size());
+    }
+
+    @Test
+    public void restoresAnEvictedPageById() {
+        for (int page = 0; page < 5; page++) {
+            mList.appendPage(TestItems.createPage(page * PAGE_SIZE + 1, PAGE_SIZE));
+        }
+        mList.setViewport(4 * PAGE_SIZE, 4 * PAGE_SIZE + 20);
+
+        assertNull(mList.get(5));
+        assertNull(mList.get(6));
+        // Asked for once, however many cells are bound
+        assertEquals(1, mRestoreRequests.size());
+        assertEquals(1, (int) mRestoreRequests.get(0));
+
+        // The photos come back in another order, one of them is gone and there's one which was never on the page
+        List<GalleryItem> restored = TestItems.createPage(2, PAGE_SIZE);
+        Collections.reverse(restored);
+        assertTrue(mList.restorePage(1, restored));
+
+        assertNull(mList.get(0).getUrl());
+        assertEquals("6", mList.get(5).getId());
+        assertEquals("https://example.com/6.jpg", mList.get(5).getUrl());
+        assertEquals(PAGE_SIZE, mList.getPageSize(1));
+    }
+
+    @Test
+    public void asksAgainAfterAFailedRestore() {
+        for (int page = 0; page < 4; page++) {
+            mList.appendPage(TestItems.createPage(page * PAGE_SIZE + 1, PAGE_SIZE));
+        }
+        mList.setViewport(3 * PAGE_SIZE, 3 * PAGE_SIZE + 20);
+
+        mList.get(0);
+        assertFalse(mList.restorePage(1, new ArrayList<GalleryItem>()));
+        mList.get(0);
+
+        assertEquals(2, mRestoreRequests.size());
+    }
+
+    @Test
+    public void findsThePositionsAroundEmptiedPages() {
+        mList.appendPage(TestItems.createPage(1, PAGE_SIZE));
+        // Nothing but duplicates
+        assertEquals(0, mList.appendPage(TestItems.createPage(1, PAGE_SIZE)));
+        mList.appendPage(TestItems.createPage(PAGE_SIZE + 1, PAGE_SIZE));
+
+        assertEquals("100", mList.get(PAGE_SIZE - 1).getId());
+        assertEquals("101", mList.get(PAGE_SIZE).getId());
+        assertEquals(PAGE_SIZE, mList.getPageStart(3));
+        assertEquals(1, mList.getPageOf(PAGE_SIZE - 1));
+        assertEquals(3, mList.getPageOf(PAGE_SIZE));
+    }
+}
@@ -0,0 +1,82 @@
+package cz.zdrubecky.photogallery;
+
+import org.junit.Test;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HttpCacheTest {
+    private static final long NOW = 1000000;
+
+    // Headers in, request properties out, it never connects
+    private static class FakeConnection extends HttpURLConnection {
+        private final Map<String, String> mHeaders = new HashMap<>();
+        private final Map<String, String> mRequestProperties = new HashMap<>();
+
+        FakeConnection() throws Exception {
+            super(new URL("https://api.flickr.com/services/rest/"));
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mHeaders.get(name);
+        }
+
+        @Override
+        public void setRequestProperty(String key, String value) {
+            mRequestProperties.put(key, value);
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+
+    @Test
+    public void keepsTheValidatorsA304LeavesOut() throws Exception {
+        FakeConnection ok = new FakeConnection();
+        ok.mHeaders.put("ETag", "\"abc\"");
+        ok.mHeaders.put("Last-Modified", "Sun, 18 Oct 2026 10:00:00 GMT");
+        HttpCache.CachedResponse stored = HttpCache.fromConnection(ok, NOW);
+
+        FakeConnection notModified = new FakeConnection();
+        notModified.mHeaders.put("Cache-Control", "max-age=60");
+        HttpCache.CachedResponse revalidated = HttpCache.fromNotModified(notModified, NOW, stored);
+
+        assertTrue(revalidated.isFresh(NOW + 59 * 1000));
+
+        FakeConnection next = new FakeConnection();
+        revalidated.addValidators(next);
+
+        assertEquals("\"abc\"", next.mRequestProperties.get("If-None-Match"));
+        assertEquals("Sun, 18 Oct 2026 10:00:00 GMT", next.mRequestProperties.get("If-Modified-Since"));
+    }
+
+    @Test
+    public void prefersTheNewValidators() throws Exception {
+        FakeConnection ok = new FakeConnection();
+        ok.mHeaders.put("ETag", "\"abc\"");
+        HttpCache.CachedResponse stored = HttpCache.fromConnection(ok, NOW);
+
+        FakeConnection notModified = new FakeConnection();
+        notModified.mHeaders.put("ETag", "\"def\"");
+        FakeConnection next = new FakeConnection();
+        HttpCache.fromNotModified(notModified, NOW, stored).addValidators(next);
+
+        assertEquals("\"def\"", next.mRequestProperties.get("If-None-Match"));
+    }
+}
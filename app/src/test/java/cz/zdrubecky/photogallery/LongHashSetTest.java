@@ -0,0 +1,97 @@
+package cz.zdrubecky.photogallery;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongHashSetTest {
+    // The size of a fresh table, it grows once it's more than half full
+    private static final int MIN_CAPACITY = 16;
+
+    @Test
+    public void growsAndKeepsEverything() {
+        LongHashSet set = new LongHashSet();
+
+        for (long id = 0; id < 10000; id++) {
+            assertTrue(set.add(id * 1000003L));
+        }
+
+        assertFalse(set.add(0));
+        assertFalse(set.add(9999 * 1000003L));
+        assertEquals(10000, set.size());
+        assertTrue(set.contains(5000 * 1000003L));
+        assertFalse(set.contains(5000 * 1000003L + 1));
+    }
+
+    @Test
+    public void keepsTheZeroApart() {
+        LongHashSet set = new LongHashSet();
+
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertEquals(1, set.size());
+
+        set.clear();
+
+        assertFalse(set.contains(0));
+        assertEquals(0, set.size());
+    }
+
+    @Test
+    public void probesPastTheCollisions() {
+        // All of them land in the last slot of a fresh table, so they wrap around its end
+        List<Long> colliding = findColliding(MIN_CAPACITY - 1, MIN_CAPACITY / 2 + 1);
+        long absent = colliding.remove(colliding.size() - 1);
+        LongHashSet set = new LongHashSet();
+
+        for (long value : colliding) {
+            assertTrue(set.add(value));
+        }
+
+        for (long value : colliding) {
+            assertFalse(set.add(value));
+            assertTrue(set.contains(value));
+        }
+        assertFalse(set.contains(absent));
+        assertEquals(colliding.size(), set.size());
+
+        // One more and the table grows, the run is spread over a larger one
+        assertTrue(set.add(absent));
+        for (long value : colliding) {
+            assertTrue(set.contains(value));
+        }
+        assertEquals(colliding.size() + 1, set.size());
+    }
+
+    @Test
+    public void takesTheNegativesAndTheExtremes() {
+        LongHashSet set = new LongHashSet();
+
+        assertTrue(set.add(-1));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertTrue(set.add(Long.MAX_VALUE));
+
+        assertTrue(set.contains(-1));
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertTrue(set.contains(Long.MAX_VALUE));
+        assertFalse(set.contains(1));
+    }
+
+    private static List<Long> findColliding(int slot, int count) {
+        List<Long> values = new ArrayList<>();
+
+        for (long value = 1; values.size() < count; value++) {
+            if ((LongHashSet.hash(value) & (MIN_CAPACITY - 1)) == slot) {
+                values.add(value);
+            }
+        }
+
+        return values;
+    }
+}
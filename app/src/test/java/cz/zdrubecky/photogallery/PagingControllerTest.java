@@ -0,0 +1,77 @@
+package cz.zdrubecky.photogallery;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PagingControllerTest {
+    private static final int THRESHOLD = 30;
+
+    // Every request as {first page, last page, generation}
+    private List<int[]> mRequests;
+    private PagingController mController;
+
+    @Before
+    public void setUp() {
+        mRequests = new ArrayList<>();
+        mController = new PagingController(THRESHOLD, new PagingController.PageLoader() {
+            @Override
+            public void loadPages(int firstPage, int lastPage, int generation) {
+                mRequests.add(new int[] { firstPage, lastPage, generation });
+            }
+        });
+    }
+
+    @Test
+    public void loadsARangeAsOne() {
+        mController.reset(8);
+        int generation = mRequests.get(0)[2];
+
+        assertEquals(1, mRequests.get(0)[0]);
+        assertEquals(8, mRequests.get(0)[1]);
+        assertTrue(mController.isLoading(1, generation));
+        assertTrue(mController.isLoading(8, generation));
+
+        // Nothing else is asked for while the range is on its way
+        mController.onScrolled(790, 800);
+        assertEquals(1, mRequests.size());
+
+        assertTrue(mController.onPageLoaded(8, generation, 800));
+        assertFalse(mController.isLoading(8, generation));
+
+        mController.onScrolled(790, 800);
+        assertEquals(9, mRequests.get(1)[0]);
+        assertEquals(9, mRequests.get(1)[1]);
+    }
+
+    @Test
+    public void takesARangeCutShort() {
+        mController.reset(8);
+        int generation = mRequests.get(0)[2];
+
+        // The fifth page failed, so did everything after it
+        assertTrue(mController.onPageLoaded(4, generation, 400));
+        assertFalse(mController.isLoading(5, generation));
+
+        // The next page after the last one which made it
+        mController.onScrolled(390, 400);
+        assertEquals(5, mRequests.get(1)[0]);
+    }
+
+    @Test
+    public void dropsTheRangeOfAnOlderQuery() {
+        mController.reset(8);
+        int oldGeneration = mRequests.get(0)[2];
+        mController.reset();
+
+        assertFalse(mController.onPageLoaded(8, oldGeneration, 800));
+        assertTrue(mController.isLoading(1, mRequests.get(1)[2]));
+        assertFalse(mController.isLoading(2, mRequests.get(1)[2]));
+    }
+}
@@ -0,0 +1,115 @@
+package cz.zdrubecky.photogallery;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// The schedule played out on a simulated clock, a day of polling takes no time at all
+public class PollBackoffTest {
+    private static final long BASE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final long MAX_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    private FakeClock mClock;
+    private PollBackoff mBackoff;
+
+    private static class FakeClock implements PollBackoff.Clock {
+        private long mNow;
+
+        @Override
+        public long now() {
+            return mNow;
+        }
+
+        public void advanceTo(long time) {
+            mNow = time;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock();
+        mBackoff = new PollBackoff(mClock, BASE_INTERVAL, MAX_INTERVAL);
+    }
+
+    @Test
+    public void doublesWhileNothingIsNew() {
+        long[] expected = { 1, 2, 4, 8, 16, 32, 60, 60 };
+
+        for (long minutes : expected) {
+            assertEquals(TimeUnit.MINUTES.toMillis(minutes), mBackoff.getInterval(true));
+            mBackoff.onPollFinished(0);
+        }
+    }
+
+    @Test
+    public void resetsWhenSomethingIsNew() {
+        for (int i = 0; i < 5; i++) {
+            mBackoff.onPollFinished(0);
+        }
+        assertEquals(TimeUnit.MINUTES.toMillis(32), mBackoff.getInterval(true));
+
+        mBackoff.onPollFinished(3);
+
+        assertEquals(0, mBackoff.getEmptyPolls());
+        assertEquals(BASE_INTERVAL, mBackoff.getInterval(true));
+    }
+
+    @Test
+    public void waitsLongerOnBattery() {
+        assertEquals(2 * BASE_INTERVAL, mBackoff.getInterval(false));
+
+        for (int i = 0; i < 10; i++) {
+            mBackoff.onPollFinished(0);
+        }
+        assertEquals(2 * MAX_INTERVAL, mBackoff.getInterval(false));
+    }
+
+    @Test
+    public void stopsCountingAtTheLimit() {
+        for (int i = 0; i < 1000; i++) {
+            mBackoff.onPollFinished(0);
+        }
+
+        assertEquals(MAX_INTERVAL, mBackoff.getInterval(true));
+        assertEquals(6, mBackoff.getEmptyPolls());
+    }
+
+    @Test
+    public void restoredCountContinuesTheSchedule() {
+        PollBackoff restored = new PollBackoff(mClock, BASE_INTERVAL, MAX_INTERVAL);
+        restored.setEmptyPolls(3);
+
+        assertEquals(TimeUnit.MINUTES.toMillis(8), restored.getInterval(true));
+    }
+
+    @Test
+    public void quietDayTakesFarFewerPollsThanTheFixedInterval() {
+        long dayEnd = TimeUnit.DAYS.toMillis(1);
+        int polls = 0;
+
+        while (mClock.now() < dayEnd) {
+            mBackoff.onPollFinished(0);
+            polls++;
+            mClock.advanceTo(mBackoff.getNextPollTime(true));
+        }
+
+        // 6 polls to climb up to the hour, then an hourly one, instead of 1440 polls a minute apart
+        assertTrue("Polled " + polls + " times", polls <= 30);
+    }
+
+    @Test
+    public void busyPeriodKeepsPollingEveryMinute() {
+        long start = mClock.now();
+
+        for (int i = 0; i < 10; i++) {
+            mBackoff.onPollFinished(1);
+            mClock.advanceTo(mBackoff.getNextPollTime(true));
+        }
+
+        assertEquals(10 * BASE_INTERVAL, mClock.now() - start);
+    }
+}
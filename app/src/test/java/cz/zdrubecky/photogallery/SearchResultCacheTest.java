@@ -0,0 +1,61 @@
+package cz.zdrubecky.photogallery;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SearchResultCacheTest {
+    private static final long MAX_AGE = 5 * 60 * 1000;
+
+    private SearchResultCache mCache;
+
+    @Before
+    public void setUp() {
+        mCache = new SearchResultCache(2, MAX_AGE);
+    }
+
+    @Test
+    public void normalizesTheQueries() {
+        mCache.put("Red  Cats ", 1, TestItems.createItems("1"), 0);
+
+        assertEquals("1", mCache.get(" red cats", 1, 0).get(0).getId());
+        assertNull(mCache.get("red cats", 2, 0));
+        assertNull(SearchResultCache.normalize("   "));
+    }
+
+    @Test
+    public void forgetsTheOldPages() {
+        mCache.put("cats", 1, TestItems.createItems("1"), 0);
+
+        assertNull(mCache.get("cats", 1, MAX_AGE + 1));
+        assertEquals(0, mCache.size());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsed() {
+        List<GalleryItem> cats = TestItems.createItems("1");
+        mCache.put("cats", 1, cats, 0);
+        mCache.put("dogs", 1, TestItems.createItems("2"), 0);
+        // Cats are wanted again, the dogs go first
+        mCache.get("cats", 1, 0);
+        mCache.put("birds", 1, TestItems.createItems("3"), 0);
+
+        assertNull(mCache.get("dogs", 1, 0));
+        assertEquals(cats, mCache.get("cats", 1, 0));
+    }
+
+    @Test
+    public void doesNotKeepTheFailedPages() {
+        List<GalleryItem> cats = TestItems.createItems("1");
+        mCache.put("cats", 1, cats, 0);
+        mCache.put("cats", 1, new ArrayList<GalleryItem>(), 0);
+
+        assertEquals(cats, mCache.get("cats", 1, 0));
+        assertNull(mCache.get(null, 1, 0));
+    }
+}
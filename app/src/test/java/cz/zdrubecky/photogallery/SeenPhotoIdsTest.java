@@ -0,0 +1,98 @@
+package cz.zdrubecky.photogallery;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SeenPhotoIdsTest {
+    private static final int CAPACITY = 5;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void countsEveryNewPhotoOnce() throws Exception {
+        SeenPhotoIds seenIds = SeenPhotoIds.load(mFolder.newFile(), CAPACITY);
+        seenIds.reset(null);
+
+        assertEquals(2, seenIds.addAll(TestItems.createItems("1", "2", "2")));
+        // One already seen, one not a number at all
+        assertEquals(1, seenIds.addAll(TestItems.createItems("2", "3", "abc")));
+        assertEquals(3, seenIds.size());
+    }
+
+    @Test
+    public void keepsTheHighestIdsWhenFull() throws Exception {
+        SeenPhotoIds seenIds = SeenPhotoIds.load(mFolder.newFile(), CAPACITY);
+
+        seenIds.addAll(TestItems.createItems("10", "11", "12", "13"));
+        assertEquals(3, seenIds.addAll(TestItems.createItems("14", "15", "16")));
+
+        assertEquals(CAPACITY, seenIds.size());
+        assertFalse(seenIds.contains(10));
+        assertFalse(seenIds.contains(11));
+        assertTrue(seenIds.contains(12));
+        assertTrue(seenIds.contains(16));
+    }
+
+    @Test
+    public void startsOverForAnotherQuery() throws Exception {
+        SeenPhotoIds seenIds = SeenPhotoIds.load(mFolder.newFile(), CAPACITY);
+        seenIds.reset("cats");
+        seenIds.addAll(TestItems.createItems("1", "2"));
+
+        assertTrue(seenIds.belongsTo("cats"));
+        assertFalse(seenIds.belongsTo("dogs"));
+
+        seenIds.reset("dogs");
+
+        assertTrue(seenIds.isEmpty());
+        assertTrue(seenIds.belongsTo("dogs"));
+    }
+
+    @Test
+    public void survivesASaveAndLoad() throws Exception {
+        File file = new File(mFolder.getRoot(), "seen");
+        SeenPhotoIds seenIds = SeenPhotoIds.load(file, CAPACITY);
+        seenIds.reset("cats");
+        seenIds.addAll(TestItems.createItems("3", "1", "2"));
+        seenIds.save();
+
+        SeenPhotoIds loaded = SeenPhotoIds.load(file, CAPACITY);
+
+        assertTrue(loaded.belongsTo("cats"));
+        assertEquals(3, loaded.size());
+        assertTrue(loaded.contains(1));
+        assertTrue(loaded.contains(3));
+        assertEquals(0, loaded.addAll(TestItems.createItems("2")));
+    }
+
+    @Test
+    public void treatsADamagedFileAsEmpty() throws Exception {
+        File file = new File(mFolder.getRoot(), "seen");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+
+        try {
+            // No query, then a count of ids way over what follows it
+            out.writeBoolean(false);
+            out.writeInt(Integer.MAX_VALUE);
+            out.writeLong(1);
+        } finally {
+            out.close();
+        }
+
+        SeenPhotoIds seenIds = SeenPhotoIds.load(file, CAPACITY);
+
+        assertTrue(seenIds.isEmpty());
+        assertTrue(seenIds.belongsTo(null));
+        assertFalse(file.exists());
+    }
+}
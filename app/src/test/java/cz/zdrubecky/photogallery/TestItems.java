@@ -0,0 +1,40 @@
+package cz.zdrubecky.photogallery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The gallery items the tests make up, every one with an id, a caption and a url derived from the id
+final class TestItems {
+    private TestItems() {
+    }
+
+    static List<GalleryItem> createItems(String... ids) {
+        List<GalleryItem> items = new ArrayList<>();
+
+        for (String id : ids) {
+            items.add(createItem(id));
+        }
+
+        return items;
+    }
+
+    // The ids from firstId on, one after another, like Flickr's page of the recent photos
+    static List<GalleryItem> createPage(int firstId, int count) {
+        List<GalleryItem> items = new ArrayList<>();
+
+        for (int id = firstId; id < firstId + count; id++) {
+            items.add(createItem(Integer.toString(id)));
+        }
+
+        return items;
+    }
+
+    private static GalleryItem createItem(String id) {
+        GalleryItem item = new GalleryItem();
+        item.setId(id);
+        item.setCaption("Photo " + id);
+        item.setUrl("https://example.com/" + id + ".jpg");
+
+        return item;
+    }
+}
@@ -0,0 +1,30 @@
+package cz.zdrubecky.photogallery;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+// Only the arithmetic, the decoding itself needs a real Bitmap
+public class ThumbnailDownloaderTest {
+    @Test
+    public void keepsBothDimensionsAtOrAboveTheTarget() {
+        // url_m into a 150 px cell, 500 / 2 = 250 still covers it, 500 / 4 = 125 doesn't
+        assertEquals(2, ThumbnailDownloader.calculateInSampleSize(500, 375, 150, 150));
+        // The shorter side decides
+        assertEquals(2, ThumbnailDownloader.calculateInSampleSize(1024, 300, 100, 150));
+        assertEquals(8, ThumbnailDownloader.calculateInSampleSize(1600, 1600, 200, 200));
+    }
+
+    @Test
+    public void neverScalesUp() {
+        assertEquals(1, ThumbnailDownloader.calculateInSampleSize(150, 150, 360, 360));
+        assertEquals(1, ThumbnailDownloader.calculateInSampleSize(299, 299, 150, 150));
+    }
+
+    @Test
+    public void decodesWholeWithoutATarget() {
+        // The cell hasn't been laid out yet
+        assertEquals(1, ThumbnailDownloader.calculateInSampleSize(500, 375, 0, 0));
+        assertEquals(1, ThumbnailDownloader.calculateInSampleSize(500, 375, 150, -1));
+    }
+}
@@ -0,0 +1,89 @@
+package cz.zdrubecky.photogallery;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TieredCacheTest {
+    // Every value takes one unit, so the first tier holds two of them and the second one more
+    private List<String> mRecycled;
+    private TieredCache<String> mCache;
+
+    @Before
+    public void setUp() {
+        mRecycled = new ArrayList<>();
+        mCache = new TieredCache<String>(2, 1) {
+            @Override
+            protected int sizeOf(String value) {
+                return 1;
+            }
+
+            @Override
+            protected void recycle(String value) {
+                mRecycled.add(value);
+            }
+        };
+    }
+
+    @Test
+    public void recyclesWhatFallsOutOfBothTiers() {
+        mCache.put("a", "A");
+        mCache.put("b", "B");
+        mCache.put("c", "C");
+
+        // Evicted to the second tier, still there
+        assertTrue(mCache.contains("a"));
+        assertTrue(mRecycled.isEmpty());
+
+        mCache.put("d", "D");
+
+        assertFalse(mCache.contains("a"));
+        assertEquals(Collections.singletonList("A"), mRecycled);
+        assertEquals(2, mCache.getEvictionCount());
+    }
+
+    @Test
+    public void neverRecyclesAPinnedValue() {
+        Object target = new Object();
+        mCache.putAndPin("a", "A", Collections.singletonList(target));
+
+        for (int i = 0; i < 10; i++) {
+            mCache.put("x" + i, "X" + i);
+        }
+
+        assertFalse(mRecycled.contains("A"));
+        assertSame("A", mCache.get("a"));
+
+        // Unpinned, it's one of the recently evicted and goes once the next one comes
+        mCache.unpin(target);
+        mCache.put("y", "Y");
+        mCache.put("z", "Z");
+
+        assertTrue(mRecycled.contains("A"));
+    }
+
+    @Test
+    public void keepsThePinOfTheNewerValue() {
+        Object target = new Object();
+        mCache.putAndPin("a", "A", Collections.singletonList(target));
+        mCache.putAndPin("b", "B", Collections.singletonList(target));
+
+        // The delivery of "a" was dropped, the target shows "b" by now
+        mCache.unpin(target, "a");
+
+        for (int i = 0; i < 10; i++) {
+            mCache.put("x" + i, "X" + i);
+        }
+
+        assertFalse(mRecycled.contains("B"));
+        assertTrue(mRecycled.contains("A"));
+    }
+}
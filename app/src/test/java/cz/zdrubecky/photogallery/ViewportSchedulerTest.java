@@ -0,0 +1,75 @@
+package cz.zdrubecky.photogallery;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ViewportSchedulerTest {
+    private ViewportScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mScheduler = new ViewportScheduler();
+        // Twelve cells on the screen
+        mScheduler.setViewport(100, 111);
+    }
+
+    @Test
+    public void runsTheNewestOfTheClosestFirst() {
+        Runnable scrolledPast = schedule("a", 20);
+        Runnable visible = schedule("b", 105);
+        Runnable newestVisible = schedule("c", 110);
+        Runnable nextScreen = schedule("d", 115);
+
+        assertSame(newestVisible, mScheduler.poll());
+        assertSame(visible, mScheduler.poll());
+        assertSame(nextScreen, mScheduler.poll());
+        assertSame(scrolledPast, mScheduler.poll());
+        assertNull(mScheduler.poll());
+    }
+
+    @Test
+    public void reranksWhenTheViewportMoves() {
+        Runnable top = schedule("a", 5);
+        Runnable bottom = schedule("b", 105);
+
+        // Flung back to the top
+        mScheduler.setViewport(0, 11);
+
+        assertSame(top, mScheduler.poll());
+        assertSame(bottom, mScheduler.poll());
+    }
+
+    @Test
+    public void keepsOnlyTheLatestTaskOfAKey() {
+        schedule("a", 20);
+        Runnable rebound = schedule("a", 104);
+
+        assertEquals(1, mScheduler.size());
+        assertSame(rebound, mScheduler.poll());
+    }
+
+    @Test
+    public void countsTheDistanceInScreens() {
+        assertEquals(0, mScheduler.getBand(ViewportScheduler.NO_POSITION));
+        assertEquals(0, mScheduler.getBand(111));
+        assertEquals(1, mScheduler.getBand(123));
+        assertEquals(2, mScheduler.getBand(124));
+        assertEquals(1, mScheduler.getBand(88));
+        assertEquals(2, mScheduler.getBand(87));
+    }
+
+    private Runnable schedule(Object key, int position) {
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        mScheduler.schedule(key, task, position);
+
+        return task;
+    }
+}
@@ -0,0 +1,32 @@
+package cz.zdrubecky.photogallery.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// The recorded Flickr responses, read from the classpath
+public class Fixtures {
+    public static final String RECENT_PAGE = "flickr_recent_page1.json";
+
+    public static byte[] read(String name) throws IOException {
+        InputStream in = Fixtures.class.getResourceAsStream("/" + name);
+
+        if (in == null) {
+            throw new IOException("Missing fixture " + name);
+        }
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int bytesRead;
+
+            while ((bytesRead = in.read(buffer)) != -1) {
+                out.write(buffer, 0, bytesRead);
+            }
+
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package cz.zdrubecky.photogallery.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import cz.zdrubecky.photogallery.GalleryItem;
+
+// How the app used to parse a page, kept here only to measure the streaming parser against
+// The whole body is parsed into a JSONObject, the photo array is written back to a String and parsed once more by Gson
+public class JsonObjectParser {
+    public static List<GalleryItem> parse(String jsonString) throws JSONException {
+        JSONObject jsonBody = new JSONObject(jsonString);
+        JSONObject photosJsonObject = jsonBody.getJSONObject("photos");
+        // Same as getString("photo") on Android, but the desktop org.json doesn't coerce arrays
+        String photoString = photosJsonObject.getJSONArray("photo").toString();
+
+        Gson gson = new GsonBuilder().create();
+
+        return new ArrayList<>(Arrays.asList(gson.fromJson(photoString, GalleryItem[].class)));
+    }
+}
@@ -0,0 +1,69 @@
+package cz.zdrubecky.photogallery.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import cz.zdrubecky.photogallery.GalleryItem;
+import cz.zdrubecky.photogallery.GalleryItemParser;
+
+// One page of getRecent, from the bytes off the wire to the list of items
+// streaming is what the app does, jsonObject is how it used to be done, gsonTree is the middle way
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    private static final Gson sGson = new Gson();
+    private static final Type ITEM_LIST_TYPE = new TypeToken<List<GalleryItem>>() {}.getType();
+
+    @Param({Fixtures.RECENT_PAGE})
+    public String fixture;
+
+    private byte[] mBody;
+
+    @Setup
+    public void setUp() throws Exception {
+        mBody = Fixtures.read(fixture);
+    }
+
+    @Benchmark
+    public List<GalleryItem> streaming() throws Exception {
+        return GalleryItemParser.parse(new ByteArrayInputStream(mBody));
+    }
+
+    // The old path read the whole body into a String first, so that's part of the cost
+    @Benchmark
+    public List<GalleryItem> jsonObject() throws Exception {
+        return JsonObjectParser.parse(new String(mBody, "UTF-8"));
+    }
+
+    @Benchmark
+    public List<GalleryItem> gsonTree() throws Exception {
+        JsonElement root = new JsonParser().parse(new InputStreamReader(new ByteArrayInputStream(mBody), "UTF-8"));
+        JsonElement photos = root.getAsJsonObject().getAsJsonObject("photos").get("photo");
+
+        return sGson.fromJson(photos, ITEM_LIST_TYPE);
+    }
+}
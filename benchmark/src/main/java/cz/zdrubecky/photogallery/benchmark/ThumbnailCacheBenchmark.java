@@ -0,0 +1,195 @@
+package cz.zdrubecky.photogallery.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import cz.zdrubecky.photogallery.TieredCache;
+
+// The thumbnail memory cache replaying the urls the grid asks for while the user scrolls
+// It's the app's own policy (TieredCache, which ThumbnailCache is), with both tiers and the cells pinning what they show,
+// only the bitmaps are stand-ins of the same size
+// Besides the time per lookup, the hits and misses are counted, the hit ratio is what matters most
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThumbnailCacheBenchmark {
+    // Three columns, five rows on the screen
+    private static final int COLUMN_COUNT = 3;
+    private static final int VISIBLE_ROWS = 5;
+    private static final int ITEM_COUNT = 3000;
+    // A third of a column wide and 120dp high on a xxhdpi phone, in ARGB_8888
+    private static final int THUMBNAIL_KB = 360 * 360 * 4 / 1024;
+    // As many as the app keeps
+    private static final int SOFT_ENTRIES = 64;
+    // The view holders the RecyclerView cycles through, the screen and a row on either side
+    private static final int CELL_COUNT = (VISIBLE_ROWS + 2) * COLUMN_COUNT;
+
+    // A tenth of the heap of a phone with 96 MB and 256 MB
+    @Param({"9830", "26214"})
+    public int cacheKb;
+
+    @Param({"scroll", "flingAndReturn", "jumps"})
+    public String trace;
+
+    private String[] mUrls;
+    private int[] mTrace;
+    private int mPosition;
+    private TieredCache<Object> mCache;
+    private Object[] mCells;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class HitCounters {
+        public long hits;
+        public long softHits;
+        public long misses;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            hits = 0;
+            softHits = 0;
+            misses = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        mUrls = new String[ITEM_COUNT];
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            mUrls[i] = "https://farm5.staticflickr.com/4" + i + "/3" + (1000000 + i) + "_5c0ffee" + i + "_m.jpg";
+        }
+
+        if (trace.equals("scroll")) {
+            mTrace = scrollTrace();
+        } else if (trace.equals("flingAndReturn")) {
+            mTrace = flingAndReturnTrace();
+        } else {
+            mTrace = jumpsTrace();
+        }
+
+        mCache = new TieredCache<Object>(cacheKb, SOFT_ENTRIES) {
+            @Override
+            protected int sizeOf(Object value) {
+                return THUMBNAIL_KB;
+            }
+        };
+
+        mCells = new Object[CELL_COUNT];
+        for (int i = 0; i < CELL_COUNT; i++) {
+            mCells[i] = new Object();
+        }
+    }
+
+    // A cell is bound to the position, like ThumbnailDownloader does it: found and pinned, or decoded and put pinned
+    @Benchmark
+    public Object lookup(HitCounters counters) {
+        int position = mTrace[mPosition];
+        String url = mUrls[position];
+        Object cell = mCells[position % CELL_COUNT];
+        mPosition = (mPosition + 1) % mTrace.length;
+
+        long softHits = mCache.getSoftHitCount();
+        Object bitmap = mCache.getAndPin(url, cell);
+
+        if (bitmap == null) {
+            counters.misses++;
+            // Stands for the decoded bitmap, only its size matters (nothing is held onto, the second tier may lose it)
+            bitmap = new Object();
+            mCache.putAndPin(url, bitmap, Collections.singletonList(cell));
+        } else if (mCache.getSoftHitCount() != softHits) {
+            counters.softHits++;
+        } else {
+            counters.hits++;
+        }
+
+        return bitmap;
+    }
+
+    // Row by row down the list, every twentieth row a few rows back to look at something again
+    private static int[] scrollTrace() {
+        List<Integer> trace = new ArrayList<>();
+        int rowCount = ITEM_COUNT / COLUMN_COUNT - VISIBLE_ROWS;
+
+        for (int row = 0; row < rowCount; row++) {
+            bindRow(trace, row + VISIBLE_ROWS - 1);
+
+            if (row % 20 == 19) {
+                for (int back = row - 1; back >= row - 6; back--) {
+                    bindRow(trace, back);
+                }
+                for (int forward = row - 5; forward <= row; forward++) {
+                    bindRow(trace, forward + VISIBLE_ROWS - 1);
+                }
+            }
+        }
+
+        return toArray(trace);
+    }
+
+    // A fast fling down a hundred rows and all the way back up, over and over
+    private static int[] flingAndReturnTrace() {
+        List<Integer> trace = new ArrayList<>();
+
+        for (int row = 0; row < 100; row++) {
+            bindRow(trace, row);
+        }
+        for (int row = 99; row >= 0; row--) {
+            bindRow(trace, row);
+        }
+
+        return toArray(trace);
+    }
+
+    // The user drags the scrollbar around, a screen at a random spot each time
+    private static int[] jumpsTrace() {
+        List<Integer> trace = new ArrayList<>();
+        Random random = new Random(42);
+        int rowCount = ITEM_COUNT / COLUMN_COUNT - VISIBLE_ROWS;
+
+        for (int jump = 0; jump < 500; jump++) {
+            int firstRow = random.nextInt(rowCount);
+
+            for (int row = firstRow; row < firstRow + VISIBLE_ROWS; row++) {
+                bindRow(trace, row);
+            }
+        }
+
+        return toArray(trace);
+    }
+
+    private static void bindRow(List<Integer> trace, int row) {
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            trace.add(row * COLUMN_COUNT + column);
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+
+        return array;
+    }
+}
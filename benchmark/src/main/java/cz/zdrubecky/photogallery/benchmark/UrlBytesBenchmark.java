@@ -0,0 +1,98 @@
+package cz.zdrubecky.photogallery.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import cz.zdrubecky.photogallery.ByteArrayPool;
+import cz.zdrubecky.photogallery.ByteStreams;
+
+// The very reads FlickrFetchr does on a thumbnail-sized body, ByteStreams with a pool sized like the app's
+// readFully() is getUrlBytes(), copy() is what goes into the disk cache
+// The body comes from memory a socket's worth at a time, so it's the reading being measured and not the network
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlBytesBenchmark {
+    // What a socket hands out per read, more or less
+    private static final int CHUNK_SIZE = 1460;
+
+    @Param({"32768"})
+    public int bodySize;
+
+    // What the Content-Length says: the truth, a gzipped length shorter than the unzipped body, or nothing (chunked)
+    @Param({"exact", "short", "missing"})
+    public String contentLength;
+
+    private byte[] mBody;
+    private int mExpectedLength;
+    // The same limit as FlickrFetchr's
+    private final ByteArrayPool mPool = new ByteArrayPool(256 * 1024);
+
+    // Throws the bytes away, like a disk which costs nothing
+    private static final OutputStream NULL_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int oneByte) {
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        mBody = new byte[bodySize];
+        new Random(42).nextBytes(mBody);
+
+        switch (contentLength) {
+            case "exact":
+                mExpectedLength = bodySize;
+                break;
+            case "short":
+                mExpectedLength = bodySize / 3;
+                break;
+            default:
+                mExpectedLength = -1;
+        }
+    }
+
+    @Benchmark
+    public byte[] readFully() throws IOException {
+        return ByteStreams.readFully(new TrickleInputStream(mBody), mExpectedLength, mPool);
+    }
+
+    // Doesn't care about the Content-Length, it's the same for all three
+    @Benchmark
+    public long copy() throws IOException {
+        return ByteStreams.copy(new TrickleInputStream(mBody), NULL_OUTPUT, mPool);
+    }
+
+    private static class TrickleInputStream extends ByteArrayInputStream {
+        public TrickleInputStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public synchronized int read(byte[] buffer, int offset, int length) {
+            return super.read(buffer, offset, Math.min(length, CHUNK_SIZE));
+        }
+    }
+}